@@ -1,6 +1,7 @@
 package mo.boardgame;
 
 import ai.djl.ndarray.NDManager;
+import mo.boardgame.game.AgentType;
 import mo.boardgame.game.BaseBoardGameEnv;
 import mo.boardgame.game.RobotWarEnv;
 
@@ -20,7 +21,7 @@ public class RobotWarStart {
 		NDManager mainManager = NDManager.newBaseManager();
 		Random random = new Random(0);
 		BaseBoardGameEnv gameEnv = gameType.buildBoardGameEnv(mainManager.newSubManager(), random, true);
-		RobotWarEnv robotWarEnv = new RobotWarEnv(mainManager.newSubManager(), random, gameEnv);
+		RobotWarEnv robotWarEnv = new RobotWarEnv(mainManager.newSubManager(), random, gameEnv, AgentType.POLICY);
 		robotWarEnv.run();
 	}
 }
@@ -2,8 +2,12 @@ package mo.boardgame;
 
 import ai.djl.engine.Engine;
 import ai.djl.ndarray.NDManager;
+import mo.boardgame.game.ActorLearnerPipeline;
+import mo.boardgame.game.AgentType;
+import mo.boardgame.game.AugmentationType;
 import mo.boardgame.game.BaseBoardGameEnv;
 import mo.boardgame.game.OpponentType;
+import mo.boardgame.game.ReplayBufferType;
 import mo.boardgame.game.SelfPlayEnv;
 
 import java.util.Random;
@@ -19,17 +23,32 @@ public class TrainStart {
 	public static void main(String[] args) {
 		int epoch = 500;
 		int replayBufferSize = 2048;
+		int numEnvs = 16;
+		// 大于0时使用多线程的采样-学习流水线，每个采样线程同时进行numEnvs局游戏
+		int numActors = 0;
+		int maxStaleness = 1;
+		// 不使用流水线时，是否在收集样本的同时于后台训练上一批样本
+		boolean doubleBuffered = true;
+		ReplayBufferType replayBufferType = ReplayBufferType.MOVE_LIST;
 		BoardGameType gameType = BoardGameType.GOMOKU2;
 
 		Engine.getInstance().setRandomSeed(0);
 		Random random = new Random(0);
 		NDManager mainManager = NDManager.newBaseManager();
 		BaseBoardGameEnv gameEnv = gameType.buildBoardGameEnv(mainManager.newSubManager(), random, false);
-		SelfPlayEnv selfPlayEnv = new SelfPlayEnv(mainManager.newSubManager(), random, gameEnv, replayBufferSize, replayBufferSize, OpponentType.MOSTLY_BEST);
-		for (int i = 0; i < epoch; i++) {
-			selfPlayEnv.train();
+		if (numActors > 0) {
+			try (SelfPlayEnv selfPlayEnv = new SelfPlayEnv(mainManager.newSubManager(), random, gameEnv, replayBufferSize, replayBufferSize, OpponentType.MOSTLY_BEST, AgentType.POLICY, AugmentationType.FULL, 1, false, replayBufferType);
+				 ActorLearnerPipeline pipeline = new ActorLearnerPipeline(mainManager.newSubManager(), random, selfPlayEnv, numActors, numEnvs, numActors * numEnvs, maxStaleness)) {
+				pipeline.run(epoch);
+			}
+			return;
+		}
+		// 关闭时等待后台训练完成，最后一轮训练及其模型保存不会丢失
+		try (SelfPlayEnv selfPlayEnv = new SelfPlayEnv(mainManager.newSubManager(), random, gameEnv, replayBufferSize, replayBufferSize, OpponentType.MOSTLY_BEST, AgentType.POLICY, AugmentationType.FULL, numEnvs, doubleBuffered, replayBufferType)) {
+			for (int i = 0; i < epoch; i++) {
+				selfPlayEnv.train();
+			}
 		}
-
 	}
 
 }
@@ -16,6 +16,11 @@ public final class ConstantParameter {
 
 	public static final String MODEL_SUFFIX = "model";
 
+	/**
+	 * 模型目录下的临时子目录，模型先保存到这里，写完后再原子地移入模型目录
+	 */
+	public static final String MODEL_TMP_DIR = ".tmp";
+
 	/**
 	 * 文件夹分隔符
 	 */
@@ -7,15 +7,17 @@ import ai.djl.ndarray.NDArray;
 import ai.djl.ndarray.NDList;
 import ai.djl.ndarray.NDManager;
 import ai.djl.ndarray.types.Shape;
-import common.Tuple;
 import mo.boardgame.demo.gomoku.gui.GomokuBoardPane;
 import mo.boardgame.game.BaseBoardGameEnv;
+import mo.boardgame.game.BitBoard;
+import mo.boardgame.game.BoardGameState;
+import mo.boardgame.game.ZobristTable;
 import org.apache.commons.lang3.Validate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
 import java.util.Random;
 
 /**
@@ -48,23 +50,28 @@ public class GomokuEnv extends BaseBoardGameEnv {
 	 * 棋盘上格子数量
 	 */
 	private static final int NUM_SQUARES = GRID_LENGTH * GRID_LENGTH;
-	private ActionSpace actionSpace;
 	/**
-	 * 落子信息
+	 * 局面哈希所用的Zobrist随机键，所有实例共用，保证哈希值可在实例间比较
 	 */
-	private Map<Integer, Token> chessInfo;
+	private static final ZobristTable ZOBRIST_TABLE = new ZobristTable(N_PLAYERS, NUM_SQUARES, GAME_NAME.hashCode());
 	/**
-	 * 当前已走步数
+	 * 环境状态通道数：落子信息、合法落子位置
 	 */
-	private int turns;
+	private static final int OBSERVATION_CHANNELS = 2;
+	/**
+	 * 合法落子位置所在通道
+	 */
+	private static final int LEGAL_CHANNEL = 1;
+	private ActionSpace actionSpace;
 	/**
-	 * 游戏是否结束
+	 * 落子信息
 	 */
-	private boolean done;
+	private BitBoard board;
 	/**
-	 * 用于构建环境状态的管理器，可避免内存泄漏
+	 * 以各玩家视角维护的环境状态，第一维为玩家索引，第二维按[通道, 行, 列]展开。
+	 * 每次落子时增量更新，构建环境状态时只需一次拷贝。
 	 */
-	private NDManager observationManager;
+	private float[][] observationPlanes;
 	private GomokuBoardPane boardPane;
 
 	public GomokuEnv(NDManager manager, Random random, boolean verbose) {
@@ -72,23 +79,20 @@ public class GomokuEnv extends BaseBoardGameEnv {
 		this.manager = manager;
 		this.random = random;
 		this.actionSpace = buildActionSpace();
-		this.observationManager = this.manager.newSubManager();
+		initObservationSlot(OBSERVATION_CHANNELS, GRID_LENGTH);
+		initZobristTable(ZOBRIST_TABLE);
+		initMoveHistory(NUM_SQUARES);
+		this.board = new BitBoard(GRID_LENGTH, N_PLAYERS);
+		this.observationPlanes = new float[N_PLAYERS][OBSERVATION_CHANNELS * NUM_SQUARES];
 		reset();
 	}
 
 	@Override
 	public void reset() {
-		this.chessInfo = new HashMap<>(NUM_SQUARES);
-		setCurPlayerId(0);
-		this.turns = 0;
-		this.done = false;
-		this.observationManager.close();
-		this.observationManager = this.manager.newSubManager();
-	}
-
-	@Override
-	public NDList getObservation() {
-		return buildObservation();
+		this.board.clear();
+		resetObservationPlanes();
+		resetGameState();
+		resetObservationManager();
 	}
 
 	@Override
@@ -98,29 +102,63 @@ public class GomokuEnv extends BaseBoardGameEnv {
 
 	@Override
 	public Step step(NDList action, boolean training) {
-		NDList preState = buildObservation();
+		// 前环境状态借用复用的NDArray，不新分配native内存
+		NDList preState = getObservationView();
 		int actionData = action.singletonOrThrow().getInt();
 		Validate.isTrue(actionData < NUM_SQUARES);
-		boolean done;
+		int playerId = getCurPlayerId();
 		float[] reward;
-		if (this.chessInfo.get(actionData) != null) {
+		if (!isLegal(actionData)) {
 			// not empty
-			done = true;
+			forfeit(actionData);
 			reward = new float[]{1, 1};
-			reward[getCurPlayerId()] = -1;
+			reward[playerId] = -1;
 		} else {
-			this.chessInfo.put(actionData, Token.getPlayerToken(getCurPlayerId()));
-			this.turns++;
-			Tuple<Integer, Boolean> result = checkGameOver();
-			done = result.second;
-			reward = new float[]{-result.first, -result.first};
-			reward[getCurPlayerId()] = result.first;
+			play(actionData);
+			int result = getWinner() == playerId ? 1 : 0;
+			reward = new float[]{-result, -result};
+			reward[playerId] = result;
 		}
-		int newPlayerId = (getCurPlayerId() + 1) % N_PLAYERS;
-		setCurPlayerId(newPlayerId);
-		this.done = done;
 		render();
-		return new GomokuStep(manager.newSubManager(), this.actionSpace, preState, buildObservation(), action, reward, done);
+		return new GomokuStep(manager.newSubManager(), this.actionSpace, preState, buildObservation(), action, reward, isDone());
+	}
+
+	@Override
+	public boolean isLegal(int move) {
+		return move >= 0 && move < NUM_SQUARES && this.board.isEmpty(move);
+	}
+
+	@Override
+	public int getActionNum() {
+		return NUM_SQUARES;
+	}
+
+	@Override
+	protected boolean placeStone(int square, int playerId) {
+		this.board.place(square, playerId);
+		updateObservationPlanes(square, playerId);
+		// 行动步数太少时，不可能有人获胜
+		return this.board.getStoneCount() >= N_IN_ROW * 2 - 1
+				&& this.board.isWinningMove(square, playerId, N_IN_ROW);
+	}
+
+	@Override
+	protected void removeStone(int square, int playerId) {
+		this.board.remove(square);
+		clearObservationPlanes(square);
+	}
+
+	@Override
+	protected void restoreBoard(BoardGameState state) {
+		this.board.clear();
+		resetObservationPlanes();
+		for (int square = 0; square < NUM_SQUARES; square++) {
+			int playerId = state.getSquarePlayerId(square);
+			if (playerId != BitBoard.NO_PLAYER) {
+				this.board.place(square, playerId);
+				updateObservationPlanes(square, playerId);
+			}
+		}
 	}
 
 	@Override
@@ -138,146 +176,74 @@ public class GomokuEnv extends BaseBoardGameEnv {
 		return policyModel;
 	}
 
+	@Override
+	public void writeObservation(FloatBuffer buffer) {
+		buffer.put(this.observationPlanes[getCurPlayerId()]);
+	}
+
 	@Override
 	public Shape getObservationShape() {
 		return new Shape(1, 1, GRID_LENGTH, GRID_LENGTH);
 	}
 
 	/**
-	 * @return 构建并返回当前棋盘状态
+	 * 重置各玩家视角的环境状态：棋盘为空，所有位置均可落子
 	 */
-	private NDList buildObservation() {
-		float[][] curPositions = new float[GRID_LENGTH][GRID_LENGTH];
-		float[][] legalPositions = new float[GRID_LENGTH][GRID_LENGTH];
-		for (int i = 0; i < NUM_SQUARES; i++) {
-			int h = i / GRID_LENGTH;
-			int w = i % GRID_LENGTH;
-			Token token = this.chessInfo.get(i);
-			int num = token == null ? 0 : getCurPlayerId() == token.getPlayerId() ? 1 : -1;
-			curPositions[h][w] = num;
-			if (token == null) {
-				legalPositions[h][w] = 1;
-			} else {
-				legalPositions[h][w] = 0;
-			}
+	private void resetObservationPlanes() {
+		for (float[] planes : this.observationPlanes) {
+			Arrays.fill(planes, 0, NUM_SQUARES, 0);
+			Arrays.fill(planes, LEGAL_CHANNEL * NUM_SQUARES, OBSERVATION_CHANNELS * NUM_SQUARES, 1);
 		}
-		NDArray curPositionArr = this.observationManager.create(curPositions).expandDims(0);
-		NDArray legalPositionArr = this.observationManager.create(legalPositions).expandDims(0);
-		return new NDList(curPositionArr.concat(legalPositionArr, 0));
 	}
 
 	/**
-	 * @return 构建并返回井字棋的行为空间
+	 * 落子后增量更新各玩家视角的环境状态
+	 *
+	 * @param square   落子位置
+	 * @param playerId 落子玩家索引
 	 */
-	private ActionSpace buildActionSpace() {
-		ActionSpace actionSpace = new ActionSpace();
-		for (int i = 0; i < NUM_SQUARES; i++) {
-			actionSpace.add(new NDList(manager.create(i)));
+	private void updateObservationPlanes(int square, int playerId) {
+		for (int i = 0; i < N_PLAYERS; i++) {
+			float[] planes = this.observationPlanes[i];
+			planes[square] = i == playerId ? 1 : -1;
+			planes[LEGAL_CHANNEL * NUM_SQUARES + square] = 0;
 		}
-		return actionSpace;
 	}
 
 	/**
-	 * 判断棋局是否终了
+	 * 棋子被移除后，恢复各玩家视角的环境状态
 	 *
-	 * @return 二元组first-收益；二元组second-是否结束
+	 * @param square 被移除棋子的位置
 	 */
-	public Tuple<Integer, Boolean> checkGameOver() {
-		int curPlayerId = getCurPlayerId();
-		if (this.turns < N_IN_ROW * 2 - 1) {
-			// 行动步数太少，不可能有人获胜
-			return new Tuple<>(0, false);
-		}
-
-		for (Map.Entry<Integer, Token> entry : this.chessInfo.entrySet()) {
-			int i = entry.getKey();
-			Token token = entry.getValue();
-			if (token.playerId != curPlayerId) {
-				continue;
-			}
-			int h = i / GRID_LENGTH;
-			int w = i % GRID_LENGTH;
-
-			// 水平检测
-			if (w < GRID_LENGTH - N_IN_ROW + 1) {
-				boolean finish = true;
-				for (int j = i; j < i + N_IN_ROW; j++) {
-					if (!squareIsCurPlayer(j)) {
-						finish = false;
-						break;
-					}
-				}
-				if (finish) {
-					return new Tuple<>(1, true);
-				}
-			}
-
-			// 垂直检测
-			if (h < GRID_LENGTH - N_IN_ROW + 1) {
-				boolean finish = true;
-				for (int j = i; j < i + N_IN_ROW * GRID_LENGTH; j += GRID_LENGTH) {
-					if (!squareIsCurPlayer(j)) {
-						finish = false;
-						break;
-					}
-				}
-				if (finish) {
-					return new Tuple<>(1, true);
-				}
-			}
-
-			// 左上向右下检测
-			if (w < GRID_LENGTH - N_IN_ROW + 1 && h < GRID_LENGTH - N_IN_ROW + 1) {
-				boolean finish = true;
-				for (int j = i; j < i + N_IN_ROW * (GRID_LENGTH + 1); j += (GRID_LENGTH + 1)) {
-					if (!squareIsCurPlayer(j)) {
-						finish = false;
-						break;
-					}
-				}
-				if (finish) {
-					return new Tuple<>(1, true);
-				}
-			}
-
-			// 右上向左下检测
-			if (w >= N_IN_ROW - 1 && h < GRID_LENGTH - N_IN_ROW + 1) {
-				boolean finish = true;
-				for (int j = i; j < i + N_IN_ROW * (GRID_LENGTH - 1); j += (GRID_LENGTH - 1)) {
-					if (!squareIsCurPlayer(j)) {
-						finish = false;
-						break;
-					}
-				}
-				if (finish) {
-					return new Tuple<>(1, true);
-				}
-			}
-		}
-
-		if (this.turns == NUM_SQUARES) {
-			return new Tuple<>(0, true);
+	private void clearObservationPlanes(int square) {
+		for (float[] planes : this.observationPlanes) {
+			planes[square] = 0;
+			planes[LEGAL_CHANNEL * NUM_SQUARES + square] = 1;
 		}
-		return new Tuple<>(0, false);
 	}
 
 	/**
-	 * 判断棋盘上指定位置是否为当前玩家落子
-	 *
-	 * @param square 棋盘位置索引
-	 * @return true-square上是当前玩家的落子；false-square上不是当前玩家的落子。
+	 * @return 构建并返回井字棋的行为空间
 	 */
-	private boolean squareIsCurPlayer(int square) {
-		Token token = this.chessInfo.get(square);
-		return token != null && token.playerId == getCurPlayerId();
+	private ActionSpace buildActionSpace() {
+		ActionSpace actionSpace = new ActionSpace();
+		for (int i = 0; i < NUM_SQUARES; i++) {
+			actionSpace.add(new NDList(manager.create(i)));
+		}
+		return actionSpace;
 	}
 
 	public int getGridLength() {
 		return GRID_LENGTH;
 	}
 
-	public Map<Integer, Token> getChessInfo() {
-		return chessInfo;
+	/**
+	 * @param square 棋盘位置索引
+	 * @return 该位置上落子的玩家索引，无人落子时返回{@link BitBoard#NO_PLAYER}
+	 */
+	@Override
+	public int getSquarePlayerId(int square) {
+		return this.board.getPlayerId(square);
 	}
 
 	public void setBoardPane(GomokuBoardPane boardPane) {
@@ -353,8 +319,8 @@ public class GomokuEnv extends BaseBoardGameEnv {
 		private GomokuStep(NDManager manager, ActionSpace actionSpace, NDList preState, NDList postState, NDList action, float[] reward, boolean done) {
 			this.manager = manager;
 			this.actionSpace = actionSpace;
+			// 前环境状态是环境复用的NDArray，不归本实例管理
 			this.preState = preState;
-			this.preState.attach(this.manager);
 			this.postState = postState;
 			this.postState.attach(this.manager);
 			this.action = action;
@@ -363,6 +329,9 @@ public class GomokuEnv extends BaseBoardGameEnv {
 			this.done = done;
 		}
 
+		/**
+		 * 注：返回的是环境复用的NDArray，只在环境下一次构建环境状态视图之前有效，调用方不可关闭，也不可长期持有
+		 */
 		@Override
 		public NDList getPreObservation() {
 			return preState;
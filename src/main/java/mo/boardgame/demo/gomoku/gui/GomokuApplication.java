@@ -11,6 +11,7 @@ import javafx.scene.text.Font;
 import javafx.scene.text.FontWeight;
 import javafx.stage.Stage;
 import mo.boardgame.demo.gomoku.GomokuEnv;
+import mo.boardgame.game.AgentType;
 import mo.boardgame.game.FightRobotEnv;
 
 import java.util.Random;
@@ -33,7 +34,7 @@ public class GomokuApplication extends Application {
 		Random random = new Random(0);
 		NDManager mainManager = NDManager.newBaseManager();
 		GomokuEnv gameEnv = new GomokuEnv(mainManager.newSubManager(), random, true);
-		FightRobotEnv<GomokuEnv> fightRobotEnv = new FightRobotEnv<>(mainManager.newSubManager(), random, gameEnv);
+		FightRobotEnv<GomokuEnv> fightRobotEnv = new FightRobotEnv<>(mainManager.newSubManager(), random, gameEnv, AgentType.MCTS);
 
 		Pane gomokuPane = loadGomokuPane(mainManager, fightRobotEnv);
 
@@ -5,17 +5,19 @@ import ai.djl.modality.rl.ActionSpace;
 import ai.djl.ndarray.NDArray;
 import ai.djl.ndarray.NDList;
 import ai.djl.ndarray.NDManager;
-import ai.djl.ndarray.types.DataType;
 import ai.djl.ndarray.types.Shape;
-import common.Tuple;
 import mo.boardgame.demo.gomoku2.gui.GomokuBoardPane2;
 import mo.boardgame.game.BaseBoardGameEnv;
+import mo.boardgame.game.BitBoard;
+import mo.boardgame.game.BoardGameState;
+import mo.boardgame.game.MathUtils;
+import mo.boardgame.game.ZobristTable;
 import org.apache.commons.lang3.Validate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
 import java.util.Random;
 
 /**
@@ -48,27 +50,48 @@ public class GomokuEnv2 extends BaseBoardGameEnv {
 	 * 棋盘上格子数量
 	 */
 	private static final int NUM_SQUARES = GRID_LENGTH * GRID_LENGTH;
-	private ActionSpace actionSpace;
 	/**
-	 * 落子信息
+	 * 局面哈希所用的Zobrist随机键，所有实例共用，保证哈希值可在实例间比较
 	 */
-	private Map<Integer, Token> chessInfo;
+	private static final ZobristTable ZOBRIST_TABLE = new ZobristTable(N_PLAYERS, NUM_SQUARES, GAME_NAME.hashCode());
 	/**
-	 * 当前已走步数
+	 * 环境状态通道数：己方落子、对方落子、最后一步、先后手、合法落子位置
 	 */
-	private int turns;
+	private static final int OBSERVATION_CHANNELS = 5;
 	/**
-	 * 游戏是否结束
+	 * 己方落子所在通道
 	 */
-	private boolean done;
+	private static final int CUR_CHANNEL = 0;
 	/**
-	 * 最后一步所走的位置
+	 * 对方落子所在通道
 	 */
-	private int lastMove;
+	private static final int OPPO_CHANNEL = 1;
+	/**
+	 * 最后一步落子所在通道
+	 */
+	private static final int LAST_MOVE_CHANNEL = 2;
+	/**
+	 * 先后手所在通道，轮到先手落子时全为1，否则全为0
+	 */
+	private static final int COLOUR_CHANNEL = 3;
+	/**
+	 * 合法落子位置所在通道
+	 */
+	private static final int LEGAL_CHANNEL = 4;
+	private ActionSpace actionSpace;
+	/**
+	 * 落子信息
+	 */
+	private BitBoard board;
+	/**
+	 * 以各玩家视角维护的环境状态，第一维为玩家索引，第二维按[通道, 行, 列]展开。
+	 * 每次落子时增量更新，构建环境状态时只需一次拷贝。
+	 */
+	private float[][] observationPlanes;
 	/**
-	 * 用于构建环境状态的管理器，可避免内存泄漏
+	 * 最后一步所走的位置
 	 */
-	private NDManager observationManager;
+	private int lastMove;
 	private GomokuBoardPane2 boardPane;
 
 	public GomokuEnv2(NDManager manager, Random random, boolean verbose) {
@@ -76,24 +99,21 @@ public class GomokuEnv2 extends BaseBoardGameEnv {
 		this.manager = manager;
 		this.random = random;
 		this.actionSpace = buildActionSpace();
-		this.observationManager = this.manager.newSubManager();
+		initObservationSlot(OBSERVATION_CHANNELS, GRID_LENGTH);
+		initZobristTable(ZOBRIST_TABLE);
+		initMoveHistory(NUM_SQUARES);
+		this.board = new BitBoard(GRID_LENGTH, N_PLAYERS);
+		this.observationPlanes = new float[N_PLAYERS][OBSERVATION_CHANNELS * NUM_SQUARES];
 		reset();
 	}
 
 	@Override
 	public void reset() {
-		this.chessInfo = new HashMap<>(NUM_SQUARES);
-		setCurPlayerId(0);
-		this.turns = 0;
-		this.done = false;
+		this.board.clear();
+		resetObservationPlanes();
+		resetGameState();
 		this.lastMove = -1;
-		this.observationManager.close();
-		this.observationManager = this.manager.newSubManager();
-	}
-
-	@Override
-	public NDList getObservation() {
-		return buildObservation();
+		resetObservationManager();
 	}
 
 	@Override
@@ -103,30 +123,88 @@ public class GomokuEnv2 extends BaseBoardGameEnv {
 
 	@Override
 	public Step step(NDList action, boolean training) {
-		NDList preState = buildObservation();
+		// 前环境状态借用复用的NDArray，不新分配native内存
+		NDList preState = getObservationView();
 		int actionData = action.singletonOrThrow().getInt();
 		Validate.isTrue(actionData < NUM_SQUARES);
-		boolean done;
+		int playerId = getCurPlayerId();
 		float[] reward;
-		if (this.chessInfo.get(actionData) != null) {
+		if (!isLegal(actionData)) {
 			// not empty
-			done = true;
+			forfeit(actionData);
 			reward = new float[]{1, 1};
-			reward[getCurPlayerId()] = -1;
+			reward[playerId] = -1;
 		} else {
-			this.chessInfo.put(actionData, Token.getPlayerToken(getCurPlayerId()));
-			this.turns++;
-			Tuple<Integer, Boolean> result = checkGameOver();
-			done = result.second;
-			reward = new float[]{-result.first, -result.first};
-			reward[getCurPlayerId()] = result.first;
+			play(actionData);
+			int result = getWinner() == playerId ? 1 : 0;
+			reward = new float[]{-result, -result};
+			reward[playerId] = result;
 		}
-		int newPlayerId = (getCurPlayerId() + 1) % N_PLAYERS;
-		setCurPlayerId(newPlayerId);
-		this.done = done;
-		this.lastMove = actionData;
 		render();
-		return new GomokuStep(manager.newSubManager(), this.actionSpace, preState, buildObservation(), action, reward, done);
+		return new GomokuStep(manager.newSubManager(), this.actionSpace, preState, buildObservation(), action, reward, isDone());
+	}
+
+	@Override
+	public boolean isLegal(int move) {
+		return move >= 0 && move < NUM_SQUARES && this.board.isEmpty(move);
+	}
+
+	@Override
+	public int getActionNum() {
+		return NUM_SQUARES;
+	}
+
+	@Override
+	protected boolean placeStone(int square, int playerId) {
+		this.board.place(square, playerId);
+		updateStonePlanes(square, playerId);
+		updateLastMovePlanes(this.lastMove, square);
+		this.lastMove = square;
+		// 行动步数太少时，不可能有人获胜
+		return this.board.getStoneCount() >= N_IN_ROW * 2 - 1
+				&& this.board.isWinningMove(square, playerId, N_IN_ROW);
+	}
+
+	@Override
+	protected void removeStone(int square, int playerId) {
+		this.board.remove(square);
+		clearStonePlanes(square);
+		int prevMove = getMoveCount() > 0 ? getMove(getMoveCount() - 1) : -1;
+		updateLastMovePlanes(this.lastMove, prevMove);
+		this.lastMove = prevMove;
+	}
+
+	@Override
+	protected void forfeit(int move) {
+		super.forfeit(move);
+		updateLastMovePlanes(this.lastMove, move);
+		this.lastMove = move;
+	}
+
+	@Override
+	protected void restoreBoard(BoardGameState state) {
+		this.board.clear();
+		resetObservationPlanes();
+		for (int square = 0; square < NUM_SQUARES; square++) {
+			int playerId = state.getSquarePlayerId(square);
+			if (playerId == BitBoard.NO_PLAYER) {
+				continue;
+			}
+			this.board.place(square, playerId);
+			for (int i = 0; i < N_PLAYERS; i++) {
+				float[] planes = this.observationPlanes[i];
+				int channel = i == playerId ? CUR_CHANNEL : OPPO_CHANNEL;
+				planes[channel * NUM_SQUARES + square] = 1;
+				planes[LEGAL_CHANNEL * NUM_SQUARES + square] = 0;
+			}
+		}
+		float colour = this.board.getStoneCount() % 2 == 0 ? 1 : 0;
+		for (float[] planes : this.observationPlanes) {
+			fillPlane(planes, COLOUR_CHANNEL, colour);
+		}
+		// 与实际对局一样，非法落子判负时标记的是那一步非法落子
+		this.lastMove = state.isForfeited() ? state.getForfeitMove() : state.getLastMove();
+		updateLastMovePlanes(-1, this.lastMove);
 	}
 
 	@Override
@@ -144,170 +222,110 @@ public class GomokuEnv2 extends BaseBoardGameEnv {
 		return policyModel;
 	}
 
+	@Override
+	public void writeObservation(FloatBuffer buffer) {
+		buffer.put(this.observationPlanes[getCurPlayerId()]);
+	}
+
 	@Override
 	public Shape getObservationShape() {
 		return new Shape(1, 4, GRID_LENGTH, GRID_LENGTH);
 	}
 
 	/**
-	 * @return 构建并返回当前棋盘状态
+	 * 重置各玩家视角的环境状态：棋盘为空，轮到先手，所有位置均可落子
 	 */
-	private NDList buildObservation() {
-		float[][] curPositions = new float[GRID_LENGTH][GRID_LENGTH];
-		float[][] oppoPositions = new float[GRID_LENGTH][GRID_LENGTH];
-		float[][] lastMove = new float[GRID_LENGTH][GRID_LENGTH];
-		float[][] legalPositions = new float[GRID_LENGTH][GRID_LENGTH];
-		for (int i = 0; i < NUM_SQUARES; i++) {
-			int h = i / GRID_LENGTH;
-			int w = i % GRID_LENGTH;
-			Token token = this.chessInfo.get(i);
-			if (token == null) {
-				legalPositions[h][w] = 1;
-			} else {
-				legalPositions[h][w] = 0;
-				if (getCurPlayerId() == token.getPlayerId()) {
-					curPositions[h][w] = 1;
-				} else {
-					oppoPositions[h][w] = 1;
-				}
-			}
-		}
-
-		if (this.lastMove != -1) {
-			lastMove[this.lastMove / GRID_LENGTH][this.lastMove % GRID_LENGTH] = 1;
+	private void resetObservationPlanes() {
+		for (float[] planes : this.observationPlanes) {
+			Arrays.fill(planes, 0);
+			fillPlane(planes, COLOUR_CHANNEL, 1);
+			fillPlane(planes, LEGAL_CHANNEL, 1);
 		}
-
-		NDArray colourArr;
-		if (this.chessInfo.size() % 2 == 0) {
-			colourArr = this.observationManager.ones(new Shape(1, GRID_LENGTH, GRID_LENGTH), DataType.FLOAT32);
-		} else {
-			colourArr = this.observationManager.zeros(new Shape(1, GRID_LENGTH, GRID_LENGTH), DataType.FLOAT32);
-		}
-
-		NDArray curPositionArr = this.observationManager.create(curPositions).expandDims(0);
-		NDArray oppoPositionArr = this.observationManager.create(oppoPositions).expandDims(0);
-		NDArray lastMoveArr = this.observationManager.create(lastMove).expandDims(0);
-		NDArray legalPositionArr = this.observationManager.create(legalPositions).expandDims(0);
-		NDList result = new NDList(curPositionArr.
-				concat(oppoPositionArr, 0).
-				concat(lastMoveArr, 0).
-				concat(colourArr, 0).
-				concat(legalPositionArr, 0));
-		return result;
 	}
 
 	/**
-	 * @return 构建并返回井字棋的行为空间
+	 * 落子后增量更新各玩家视角的落子信息、先后手及合法落子位置
+	 *
+	 * @param square   落子位置
+	 * @param playerId 落子玩家索引
 	 */
-	private ActionSpace buildActionSpace() {
-		ActionSpace actionSpace = new ActionSpace();
-		for (int i = 0; i < NUM_SQUARES; i++) {
-			actionSpace.add(new NDList(manager.create(i)));
+	private void updateStonePlanes(int square, int playerId) {
+		float colour = this.board.getStoneCount() % 2 == 0 ? 1 : 0;
+		for (int i = 0; i < N_PLAYERS; i++) {
+			float[] planes = this.observationPlanes[i];
+			int channel = i == playerId ? CUR_CHANNEL : OPPO_CHANNEL;
+			planes[channel * NUM_SQUARES + square] = 1;
+			planes[LEGAL_CHANNEL * NUM_SQUARES + square] = 0;
+			fillPlane(planes, COLOUR_CHANNEL, colour);
 		}
-		return actionSpace;
 	}
 
 	/**
-	 * 判断棋局是否终了
+	 * 棋子被移除后，恢复各玩家视角的落子信息、先后手及合法落子位置
 	 *
-	 * @return 二元组first-收益；二元组second-是否结束
+	 * @param square 被移除棋子的位置
 	 */
-	public Tuple<Integer, Boolean> checkGameOver() {
-		int curPlayerId = getCurPlayerId();
-		if (this.turns < N_IN_ROW * 2 - 1) {
-			// 行动步数太少，不可能有人获胜
-			return new Tuple<>(0, false);
+	private void clearStonePlanes(int square) {
+		float colour = this.board.getStoneCount() % 2 == 0 ? 1 : 0;
+		for (float[] planes : this.observationPlanes) {
+			planes[CUR_CHANNEL * NUM_SQUARES + square] = 0;
+			planes[OPPO_CHANNEL * NUM_SQUARES + square] = 0;
+			planes[LEGAL_CHANNEL * NUM_SQUARES + square] = 1;
+			fillPlane(planes, COLOUR_CHANNEL, colour);
 		}
+	}
 
-		for (Map.Entry<Integer, Token> entry : this.chessInfo.entrySet()) {
-			int i = entry.getKey();
-			Token token = entry.getValue();
-			if (token.playerId != curPlayerId) {
-				continue;
-			}
-			int h = i / GRID_LENGTH;
-			int w = i % GRID_LENGTH;
-
-			// 水平检测
-			if (w < GRID_LENGTH - N_IN_ROW + 1) {
-				boolean finish = true;
-				for (int j = i; j < i + N_IN_ROW; j++) {
-					if (!squareIsCurPlayer(j)) {
-						finish = false;
-						break;
-					}
-				}
-				if (finish) {
-					return new Tuple<>(1, true);
-				}
-			}
-
-			// 垂直检测
-			if (h < GRID_LENGTH - N_IN_ROW + 1) {
-				boolean finish = true;
-				for (int j = i; j < i + N_IN_ROW * GRID_LENGTH; j += GRID_LENGTH) {
-					if (!squareIsCurPlayer(j)) {
-						finish = false;
-						break;
-					}
-				}
-				if (finish) {
-					return new Tuple<>(1, true);
-				}
-			}
-
-			// 左上向右下检测
-			if (w < GRID_LENGTH - N_IN_ROW + 1 && h < GRID_LENGTH - N_IN_ROW + 1) {
-				boolean finish = true;
-				for (int j = i; j < i + N_IN_ROW * (GRID_LENGTH + 1); j += (GRID_LENGTH + 1)) {
-					if (!squareIsCurPlayer(j)) {
-						finish = false;
-						break;
-					}
-				}
-				if (finish) {
-					return new Tuple<>(1, true);
-				}
+	/**
+	 * 增量更新各玩家视角的最后一步落子位置
+	 *
+	 * @param oldMove 原先的最后一步，-1表示没有
+	 * @param newMove 新的最后一步，-1表示没有
+	 */
+	private void updateLastMovePlanes(int oldMove, int newMove) {
+		for (float[] planes : this.observationPlanes) {
+			if (oldMove != -1) {
+				planes[LAST_MOVE_CHANNEL * NUM_SQUARES + oldMove] = 0;
 			}
-
-			// 右上向左下检测
-			if (w >= N_IN_ROW - 1 && h < GRID_LENGTH - N_IN_ROW + 1) {
-				boolean finish = true;
-				for (int j = i; j < i + N_IN_ROW * (GRID_LENGTH - 1); j += (GRID_LENGTH - 1)) {
-					if (!squareIsCurPlayer(j)) {
-						finish = false;
-						break;
-					}
-				}
-				if (finish) {
-					return new Tuple<>(1, true);
-				}
+			if (newMove != -1) {
+				planes[LAST_MOVE_CHANNEL * NUM_SQUARES + newMove] = 1;
 			}
 		}
+	}
 
-		if (this.turns == NUM_SQUARES) {
-			return new Tuple<>(0, true);
-		}
-		return new Tuple<>(0, false);
+	private static void fillPlane(float[] planes, int channel, float value) {
+		Arrays.fill(planes, channel * NUM_SQUARES, (channel + 1) * NUM_SQUARES, value);
 	}
 
 	/**
-	 * 判断棋盘上指定位置是否为当前玩家落子
-	 *
-	 * @param square 棋盘位置索引
-	 * @return true-square上是当前玩家的落子；false-square上不是当前玩家的落子。
+	 * @return 构建并返回井字棋的行为空间
 	 */
-	private boolean squareIsCurPlayer(int square) {
-		Token token = this.chessInfo.get(square);
-		return token != null && token.playerId == getCurPlayerId();
+	private ActionSpace buildActionSpace() {
+		ActionSpace actionSpace = new ActionSpace();
+		for (int i = 0; i < NUM_SQUARES; i++) {
+			actionSpace.add(new NDList(manager.create(i)));
+		}
+		return actionSpace;
 	}
 
 	public int getGridLength() {
 		return GRID_LENGTH;
 	}
 
-	public Map<Integer, Token> getChessInfo() {
-		return chessInfo;
+	/**
+	 * @param square 棋盘位置索引
+	 * @return 该位置上落子的玩家索引，无人落子时返回{@link BitBoard#NO_PLAYER}
+	 */
+	@Override
+	public int getSquarePlayerId(int square) {
+		return this.board.getPlayerId(square);
+	}
+
+	/**
+	 * 环境状态包含最后一步落子的平面，相同局面的最后一步不同时网络输出也不同，因此把最后一步混入键中
+	 */
+	@Override
+	public long getEvaluationKey() {
+		return getPositionHash() ^ (this.lastMove + 1) * MathUtils.GOLDEN_RATIO_64;
 	}
 
 	public void setBoardPane(GomokuBoardPane2 boardPane) {
@@ -383,8 +401,8 @@ public class GomokuEnv2 extends BaseBoardGameEnv {
 		private GomokuStep(NDManager manager, ActionSpace actionSpace, NDList preState, NDList postState, NDList action, float[] reward, boolean done) {
 			this.manager = manager;
 			this.actionSpace = actionSpace;
+			// 前环境状态是环境复用的NDArray，不归本实例管理
 			this.preState = preState;
-			this.preState.attach(this.manager);
 			this.postState = postState;
 			this.postState.attach(this.manager);
 			this.action = action;
@@ -393,6 +411,9 @@ public class GomokuEnv2 extends BaseBoardGameEnv {
 			this.done = done;
 		}
 
+		/**
+		 * 注：返回的是环境复用的NDArray，只在环境下一次构建环境状态视图之前有效，调用方不可关闭，也不可长期持有
+		 */
 		@Override
 		public NDList getPreObservation() {
 			return preState;
@@ -15,6 +15,7 @@ import ai.djl.training.ParameterStore;
 import ai.djl.training.initializer.Initializer;
 import ai.djl.training.initializer.XavierInitializer;
 import ai.djl.util.PairList;
+import mo.boardgame.game.PolicyValueTranslator;
 import utils.ActionSampler;
 
 import java.util.Random;
@@ -65,6 +66,10 @@ public class GomokuPolicyBlock2 extends AbstractBlock {
 		NDArray maskFlatten = mask.reshape(mask.getShape().get(0), -1);
 		NDArray maskPolicy = NDArrays.where(maskFlatten, policy, policy.getManager().create(-1e8f));
 		maskPolicy = maskPolicy.sub(maskPolicy.exp().sum(new int[]{-1}, true).log());
+		if (PolicyValueTranslator.isInferenceInput(inputs)) {
+			// 推理只读取价值和策略，第0位不使用，以策略占位
+			return new NDList(maskPolicy, vf.singletonOrThrow(), maskPolicy);
+		}
 		NDArray actionProb = maskPolicy.softmax(-1);
 		NDArray actions;
 		if (training) {
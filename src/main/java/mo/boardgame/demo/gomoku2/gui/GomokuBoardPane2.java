@@ -17,8 +17,6 @@ import javafx.scene.text.TextAlignment;
 import mo.boardgame.demo.gomoku2.GomokuEnv2;
 import mo.boardgame.game.FightRobotEnv;
 
-import java.util.Map;
-
 /**
  * 五子棋棋盘
  *
@@ -91,15 +89,11 @@ public class GomokuBoardPane2 extends Pane {
 		drawLetters(gc, paddingX, paddingY, gridLength - 1, gridLength - 1, cellSize);
 
 		// 绘制棋盘落子信息
-		Map<Integer, GomokuEnv2.Token> chessInfo = this.fightRobotEnv.getGameEnv().getChessInfo();
+		GomokuEnv2 gameEnv = this.fightRobotEnv.getGameEnv();
 		for (int w = 0; w < gridLength; w++) {
 			for (int h = 0; h < gridLength; h++) {
 				int index = h * gridLength + w;
-				GomokuEnv2.Token token = chessInfo.get(index);
-				if (token == null) {
-					token = GomokuEnv2.Token.NONE;
-				}
-				drawChess(gc, paddingX, paddingY, cellSize, h, w, token);
+				drawChess(gc, paddingX, paddingY, cellSize, h, w, gameEnv.getSquarePlayerId(index));
 			}
 		}
 
@@ -197,14 +191,14 @@ public class GomokuBoardPane2 extends Pane {
 	 * @param cellSize Size of the grid cells
 	 * @param row      Row position of the stone
 	 * @param col      Column position of the stone
-	 * @param token    chess token
+	 * @param playerId player id of the stone, -1 if empty
 	 */
-	private void drawChess(GraphicsContext gc, double startX, double startY, double cellSize, int row, int col, GomokuEnv2.Token token) {
+	private void drawChess(GraphicsContext gc, double startX, double startY, double cellSize, int row, int col, int playerId) {
 		double x = startX + col * cellSize;
 		double y = startY + row * cellSize;
 		double offset = (cellSize * 0.7) / 2;
 		gc.save();
-		switch (token.getPlayerId()) {
+		switch (playerId) {
 			case 0:
 				gc.setFill(blackGradient);
 				gc.fillOval(x - offset, y - offset, cellSize * 0.7,
@@ -0,0 +1,153 @@
+package mo.boardgame.demo.tictactoe;
+
+/**
+ * 井字棋位棋盘：用一个int的低18位表示整个棋盘，
+ * 第[0, 8]位为玩家0的落子，第[9, 17]位为玩家1的落子。
+ *
+ * @author Caojunqi
+ * @date 2022-01-11 10:05
+ */
+public final class TicTacToeBoard {
+	/**
+	 * 无人落子时的玩家索引
+	 */
+	public static final int NO_PLAYER = -1;
+	/**
+	 * 棋盘长宽
+	 */
+	private static final int GRID_LENGTH = 3;
+	/**
+	 * 棋盘上格子数量，同时也是每个玩家所占的位数
+	 */
+	private static final int NUM_SQUARES = GRID_LENGTH * GRID_LENGTH;
+	/**
+	 * 单个玩家的棋盘掩码
+	 */
+	private static final int PLAYER_MASK = (1 << NUM_SQUARES) - 1;
+	/**
+	 * 所有获胜直线的掩码：三横、三竖、两斜
+	 */
+	private static final int[] WIN_LINES = {
+			0b000_000_111, 0b000_111_000, 0b111_000_000,
+			0b001_001_001, 0b010_010_010, 0b100_100_100,
+			0b100_010_001, 0b001_010_100,
+	};
+	/**
+	 * 经过各棋盘位置的获胜直线掩码，落子后只需检查这些直线
+	 */
+	private static final int[][] SQUARE_LINES = buildSquareLines();
+
+	/**
+	 * 双方落子信息
+	 */
+	private int bits;
+	/**
+	 * 当前棋盘上的棋子数
+	 */
+	private int stoneCount;
+
+	/**
+	 * 清空棋盘
+	 */
+	public void clear() {
+		this.bits = 0;
+		this.stoneCount = 0;
+	}
+
+	/**
+	 * 在指定位置落子，调用方需保证该位置为空
+	 *
+	 * @param square   棋盘位置索引
+	 * @param playerId 落子玩家索引
+	 */
+	public void place(int square, int playerId) {
+		this.bits |= 1 << (square + playerId * NUM_SQUARES);
+		this.stoneCount++;
+	}
+
+	/**
+	 * 判断玩家在square落子后是否连成一线，只检查经过该位置的预计算直线
+	 *
+	 * @param square   刚刚落子的棋盘位置索引
+	 * @param playerId 落子玩家索引
+	 * @return true-已连成一线；false-尚未连成一线
+	 */
+	public boolean isWinningMove(int square, int playerId) {
+		int playerBits = getPlayerBits(playerId);
+		for (int line : SQUARE_LINES[square]) {
+			if ((playerBits & line) == line) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * 移除指定位置上的棋子，调用方需保证该位置有子
+	 *
+	 * @param square 棋盘位置索引
+	 */
+	public void remove(int square) {
+		this.bits &= ~((1 << square) | (1 << (square + NUM_SQUARES)));
+		this.stoneCount--;
+	}
+
+	public boolean isEmpty(int square) {
+		return ((this.bits | (this.bits >>> NUM_SQUARES)) & (1 << square)) == 0;
+	}
+
+	/**
+	 * @param square 棋盘位置索引
+	 * @return 该位置上落子的玩家索引，无人落子时返回{@link #NO_PLAYER}
+	 */
+	public int getPlayerId(int square) {
+		if ((this.bits & (1 << square)) != 0) {
+			return 0;
+		}
+		if ((this.bits & (1 << (square + NUM_SQUARES))) != 0) {
+			return 1;
+		}
+		return NO_PLAYER;
+	}
+
+	/**
+	 * @param playerId 玩家索引
+	 * @return 该玩家的9位落子掩码
+	 */
+	public int getPlayerBits(int playerId) {
+		return (this.bits >>> (playerId * NUM_SQUARES)) & PLAYER_MASK;
+	}
+
+	public int getBits() {
+		return bits;
+	}
+
+	public int getStoneCount() {
+		return stoneCount;
+	}
+
+	public boolean isFull() {
+		return this.stoneCount == NUM_SQUARES;
+	}
+
+	private static int[][] buildSquareLines() {
+		int[][] squareLines = new int[NUM_SQUARES][];
+		for (int square = 0; square < NUM_SQUARES; square++) {
+			int count = 0;
+			for (int line : WIN_LINES) {
+				if ((line & (1 << square)) != 0) {
+					count++;
+				}
+			}
+			int[] lines = new int[count];
+			int index = 0;
+			for (int line : WIN_LINES) {
+				if ((line & (1 << square)) != 0) {
+					lines[index++] = line;
+				}
+			}
+			squareLines[square] = lines;
+		}
+		return squareLines;
+	}
+}
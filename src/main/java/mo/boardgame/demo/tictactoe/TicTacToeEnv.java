@@ -7,15 +7,16 @@ import ai.djl.ndarray.NDArray;
 import ai.djl.ndarray.NDList;
 import ai.djl.ndarray.NDManager;
 import ai.djl.ndarray.types.Shape;
-import common.Tuple;
 import mo.boardgame.demo.tictactoe.gui.TicTacToeBoardPane;
 import mo.boardgame.game.BaseBoardGameEnv;
+import mo.boardgame.game.BoardGameState;
+import mo.boardgame.game.ZobristTable;
 import org.apache.commons.lang3.Validate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
 import java.util.Random;
 
 /**
@@ -44,23 +45,28 @@ public class TicTacToeEnv extends BaseBoardGameEnv {
 	 * 棋盘上格子数量
 	 */
 	private static final int NUM_SQUARES = GRID_LENGTH * GRID_LENGTH;
-	private ActionSpace actionSpace;
 	/**
-	 * 当前棋盘现状
+	 * 局面哈希所用的Zobrist随机键，所有实例共用，保证哈希值可在实例间比较
+	 */
+	private static final ZobristTable ZOBRIST_TABLE = new ZobristTable(N_PLAYERS, NUM_SQUARES, GAME_NAME.hashCode());
+	/**
+	 * 环境状态通道数：落子信息、合法落子位置
 	 */
-	private List<Token> board;
+	private static final int OBSERVATION_CHANNELS = 2;
 	/**
-	 * 当前已走步数
+	 * 合法落子位置所在通道
 	 */
-	private int turns;
+	private static final int LEGAL_CHANNEL = 1;
+	private ActionSpace actionSpace;
 	/**
-	 * 游戏是否结束
+	 * 当前棋盘现状
 	 */
-	private boolean done;
+	private TicTacToeBoard board;
 	/**
-	 * 用于构建环境状态的管理器，可避免内存泄漏
+	 * 以各玩家视角维护的环境状态，第一维为玩家索引，第二维按[通道, 行, 列]展开。
+	 * 每次落子时增量更新，构建环境状态时只需一次拷贝。
 	 */
-	private NDManager observationManager;
+	private float[][] observationPlanes;
 	private TicTacToeBoardPane boardPane;
 
 	public TicTacToeEnv(NDManager manager, Random random, boolean verbose) {
@@ -68,27 +74,20 @@ public class TicTacToeEnv extends BaseBoardGameEnv {
 		this.manager = manager;
 		this.random = random;
 		this.actionSpace = buildActionSpace();
-		this.observationManager = this.manager.newSubManager();
+		initObservationSlot(OBSERVATION_CHANNELS, GRID_LENGTH);
+		initZobristTable(ZOBRIST_TABLE);
+		initMoveHistory(NUM_SQUARES);
+		this.board = new TicTacToeBoard();
+		this.observationPlanes = new float[N_PLAYERS][OBSERVATION_CHANNELS * NUM_SQUARES];
 		reset();
 	}
 
 	@Override
 	public void reset() {
-		List<Token> board = new ArrayList<>(NUM_SQUARES);
-		for (int i = 0; i < NUM_SQUARES; i++) {
-			board.add(Token.NONE);
-		}
-		this.board = board;
-		setCurPlayerId(0);
-		this.turns = 0;
-		this.done = false;
-		this.observationManager.close();
-		this.observationManager = this.manager.newSubManager();
-	}
-
-	@Override
-	public NDList getObservation() {
-		return buildObservation();
+		this.board.clear();
+		resetObservationPlanes();
+		resetGameState();
+		resetObservationManager();
 	}
 
 	@Override
@@ -98,29 +97,61 @@ public class TicTacToeEnv extends BaseBoardGameEnv {
 
 	@Override
 	public Step step(NDList action, boolean training) {
-		NDList preState = buildObservation();
+		// 前环境状态借用复用的NDArray，不新分配native内存
+		NDList preState = getObservationView();
 		int actionData = action.singletonOrThrow().getInt();
-		Validate.isTrue(actionData < this.board.size());
-		boolean done;
+		Validate.isTrue(actionData < NUM_SQUARES);
+		int playerId = getCurPlayerId();
 		float[] reward;
-		if (this.board.get(actionData) != Token.NONE) {
+		if (!isLegal(actionData)) {
 			// not empty
-			done = true;
+			forfeit(actionData);
 			reward = new float[]{1, 1};
-			reward[getCurPlayerId()] = -1;
+			reward[playerId] = -1;
 		} else {
-			this.board.set(actionData, Token.getPlayerToken(getCurPlayerId()));
-			this.turns++;
-			Tuple<Integer, Boolean> result = checkGameOver();
-			done = result.second;
-			reward = new float[]{-result.first, -result.first};
-			reward[getCurPlayerId()] = result.first;
+			play(actionData);
+			int result = getWinner() == playerId ? 1 : 0;
+			reward = new float[]{-result, -result};
+			reward[playerId] = result;
 		}
-		int newPlayerId = (getCurPlayerId() + 1) % N_PLAYERS;
-		setCurPlayerId(newPlayerId);
-		this.done = done;
 		render();
-		return new TicTacToeStep(manager.newSubManager(), this.actionSpace, preState, buildObservation(), action, reward, done);
+		return new TicTacToeStep(manager.newSubManager(), this.actionSpace, preState, buildObservation(), action, reward, isDone());
+	}
+
+	@Override
+	public boolean isLegal(int move) {
+		return move >= 0 && move < NUM_SQUARES && this.board.isEmpty(move);
+	}
+
+	@Override
+	public int getActionNum() {
+		return NUM_SQUARES;
+	}
+
+	@Override
+	protected boolean placeStone(int square, int playerId) {
+		this.board.place(square, playerId);
+		updateObservationPlanes(square, playerId);
+		return this.board.isWinningMove(square, playerId);
+	}
+
+	@Override
+	protected void removeStone(int square, int playerId) {
+		this.board.remove(square);
+		clearObservationPlanes(square);
+	}
+
+	@Override
+	protected void restoreBoard(BoardGameState state) {
+		this.board.clear();
+		resetObservationPlanes();
+		for (int square = 0; square < NUM_SQUARES; square++) {
+			int playerId = state.getSquarePlayerId(square);
+			if (playerId != TicTacToeBoard.NO_PLAYER) {
+				this.board.place(square, playerId);
+				updateObservationPlanes(square, playerId);
+			}
+		}
 	}
 
 	@Override
@@ -138,92 +169,70 @@ public class TicTacToeEnv extends BaseBoardGameEnv {
 		return policyModel;
 	}
 
+	@Override
+	public void writeObservation(FloatBuffer buffer) {
+		buffer.put(this.observationPlanes[getCurPlayerId()]);
+	}
+
 	@Override
 	public Shape getObservationShape() {
 		return new Shape(1, 1, 3, 3);
 	}
 
 	/**
-	 * @return 构建并返回当前棋盘状态
+	 * 重置各玩家视角的环境状态：棋盘为空，所有位置均可落子
 	 */
-	private NDList buildObservation() {
-		float[][] curPositions = new float[GRID_LENGTH][GRID_LENGTH];
-		float[][] legalPositions = new float[GRID_LENGTH][GRID_LENGTH];
-		for (int i = 0; i < this.board.size(); i++) {
-			Token token = this.board.get(i);
-			int h = i / GRID_LENGTH;
-			int w = i % GRID_LENGTH;
-			int num = token == Token.NONE ? 0 : getCurPlayerId() == token.getPlayerId() ? 1 : -1;
-			curPositions[h][w] = num;
-			if (token == Token.NONE) {
-				legalPositions[h][w] = 1;
-			} else {
-				legalPositions[h][w] = 0;
-			}
+	private void resetObservationPlanes() {
+		for (float[] planes : this.observationPlanes) {
+			Arrays.fill(planes, 0, NUM_SQUARES, 0);
+			Arrays.fill(planes, LEGAL_CHANNEL * NUM_SQUARES, OBSERVATION_CHANNELS * NUM_SQUARES, 1);
 		}
-		NDArray curPositionArr = this.observationManager.create(curPositions).expandDims(0);
-		NDArray legalPositionArr = this.observationManager.create(legalPositions).expandDims(0);
-		return new NDList(curPositionArr.concat(legalPositionArr, 0));
 	}
 
 	/**
-	 * @return 构建并返回井字棋的行为空间
+	 * 落子后增量更新各玩家视角的环境状态
+	 *
+	 * @param square   落子位置
+	 * @param playerId 落子玩家索引
 	 */
-	private ActionSpace buildActionSpace() {
-		ActionSpace actionSpace = new ActionSpace();
-		for (int i = 0; i < NUM_SQUARES; i++) {
-			actionSpace.add(new NDList(manager.create(i)));
+	private void updateObservationPlanes(int square, int playerId) {
+		for (int i = 0; i < N_PLAYERS; i++) {
+			float[] planes = this.observationPlanes[i];
+			planes[square] = i == playerId ? 1 : -1;
+			planes[LEGAL_CHANNEL * NUM_SQUARES + square] = 0;
 		}
-		return actionSpace;
 	}
 
 	/**
-	 * 判断棋局是否终了
+	 * 棋子被移除后，恢复各玩家视角的环境状态
 	 *
-	 * @return 二元组first-收益；二元组second-是否结束
+	 * @param square 被移除棋子的位置
 	 */
-	public Tuple<Integer, Boolean> checkGameOver() {
-		int curPlayerId = getCurPlayerId();
-		for (int i = 0; i < GRID_LENGTH; i++) {
-			// horizontals and verticals
-			if ((squareIsCurPlayer(i * GRID_LENGTH)
-					&& squareIsCurPlayer(i * GRID_LENGTH + 1)
-					&& squareIsCurPlayer(i * GRID_LENGTH + 2))
-					|| (squareIsCurPlayer(i)
-					&& squareIsCurPlayer(i + GRID_LENGTH)
-					&& squareIsCurPlayer(i + GRID_LENGTH * 2))) {
-				return new Tuple<>(1, true);
-			}
-		}
-
-		// diagonals
-		if ((squareIsCurPlayer(0)
-				&& squareIsCurPlayer(4)
-				&& squareIsCurPlayer(8))
-				|| (squareIsCurPlayer(6)
-				&& squareIsCurPlayer(4)
-				&& squareIsCurPlayer(2))) {
-			return new Tuple<>(1, true);
+	private void clearObservationPlanes(int square) {
+		for (float[] planes : this.observationPlanes) {
+			planes[square] = 0;
+			planes[LEGAL_CHANNEL * NUM_SQUARES + square] = 1;
 		}
+	}
 
-		if (this.turns == NUM_SQUARES) {
-			return new Tuple<>(0, true);
+	/**
+	 * @return 构建并返回井字棋的行为空间
+	 */
+	private ActionSpace buildActionSpace() {
+		ActionSpace actionSpace = new ActionSpace();
+		for (int i = 0; i < NUM_SQUARES; i++) {
+			actionSpace.add(new NDList(manager.create(i)));
 		}
-		return new Tuple<>(0, false);
+		return actionSpace;
 	}
 
 	/**
-	 * 判断棋盘上指定位置是否为当前玩家落子
-	 *
 	 * @param square 棋盘位置索引
-	 * @return true-square上是当前玩家的落子；false-square上不是当前玩家的落子。
+	 * @return 该位置上落子的玩家索引，无人落子时返回{@link TicTacToeBoard#NO_PLAYER}
 	 */
-	private boolean squareIsCurPlayer(int square) {
-		return this.board.get(square).playerId == getCurPlayerId();
-	}
-
-	public List<Token> getBoard() {
-		return board;
+	@Override
+	public int getSquarePlayerId(int square) {
+		return this.board.getPlayerId(square);
 	}
 
 	public void setBoardPane(TicTacToeBoardPane boardPane) {
@@ -299,8 +308,8 @@ public class TicTacToeEnv extends BaseBoardGameEnv {
 		private TicTacToeStep(NDManager manager, ActionSpace actionSpace, NDList preState, NDList postState, NDList action, float[] reward, boolean done) {
 			this.manager = manager;
 			this.actionSpace = actionSpace;
+			// 前环境状态是环境复用的NDArray，不归本实例管理
 			this.preState = preState;
-			this.preState.attach(this.manager);
 			this.postState = postState;
 			this.postState.attach(this.manager);
 			this.action = action;
@@ -309,6 +318,9 @@ public class TicTacToeEnv extends BaseBoardGameEnv {
 			this.done = done;
 		}
 
+		/**
+		 * 注：返回的是环境复用的NDArray，只在环境下一次构建环境状态视图之前有效，调用方不可关闭，也不可长期持有
+		 */
 		@Override
 		public NDList getPreObservation() {
 			return preState;
@@ -11,6 +11,7 @@ import javafx.scene.text.Font;
 import javafx.scene.text.FontWeight;
 import javafx.stage.Stage;
 import mo.boardgame.demo.tictactoe.TicTacToeEnv;
+import mo.boardgame.game.AgentType;
 import mo.boardgame.game.FightRobotEnv;
 
 import java.util.Random;
@@ -33,7 +34,7 @@ public class TicTacToeApplication extends Application {
 		Random random = new Random(0);
 		NDManager mainManager = NDManager.newBaseManager();
 		TicTacToeEnv gameEnv = new TicTacToeEnv(mainManager.newSubManager(), random, true);
-		FightRobotEnv<TicTacToeEnv> fightRobotEnv = new FightRobotEnv<>(mainManager.newSubManager(), random, gameEnv);
+		FightRobotEnv<TicTacToeEnv> fightRobotEnv = new FightRobotEnv<>(mainManager.newSubManager(), random, gameEnv, AgentType.MCTS);
 
 		Pane tictactoePane = loadTictactoePane(mainManager, fightRobotEnv);
 
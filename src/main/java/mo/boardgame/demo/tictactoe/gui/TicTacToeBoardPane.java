@@ -15,8 +15,6 @@ import javafx.scene.text.Font;
 import mo.boardgame.demo.tictactoe.TicTacToeEnv;
 import mo.boardgame.game.FightRobotEnv;
 
-import java.util.List;
-
 /**
  * 井字棋棋盘
  *
@@ -86,12 +84,11 @@ public class TicTacToeBoardPane extends Pane {
 		drawGrid(gc, paddingX, paddingY, GRID_LENGTH, GRID_LENGTH, cellSize);
 
 		// 绘制棋盘落子信息
-		List<TicTacToeEnv.Token> chessInfo = this.fightRobotEnv.getGameEnv().getBoard();
+		TicTacToeEnv gameEnv = this.fightRobotEnv.getGameEnv();
 		for (int w = 0; w < GRID_LENGTH; w++) {
 			for (int h = 0; h < GRID_LENGTH; h++) {
 				int index = h * GRID_LENGTH + w;
-				TicTacToeEnv.Token token = chessInfo.get(index);
-				drawChess(gc, paddingX, paddingY, cellSize, h, w, token);
+				drawChess(gc, paddingX, paddingY, cellSize, h, w, gameEnv.getSquarePlayerId(index));
 			}
 		}
 
@@ -135,14 +132,14 @@ public class TicTacToeBoardPane extends Pane {
 	 * @param cellSize Size of the grid cells
 	 * @param row      Row position of the stone
 	 * @param col      Column position of the stone
-	 * @param token    chess token
+	 * @param playerId player id of the stone, -1 if empty
 	 */
-	private void drawChess(GraphicsContext gc, double startX, double startY, double cellSize, int row, int col, TicTacToeEnv.Token token) {
+	private void drawChess(GraphicsContext gc, double startX, double startY, double cellSize, int row, int col, int playerId) {
 		double x = startX + col * cellSize + 0.5 * cellSize;
 		double y = startY + row * cellSize + 0.5 * cellSize;
 		double offset = (cellSize * 0.7) / 2;
 		gc.save();
-		switch (token.getPlayerId()) {
+		switch (playerId) {
 			case 0:
 				gc.setFill(blackGradient);
 				gc.fillOval(x - offset, y - offset, cellSize * 0.7,
@@ -0,0 +1,332 @@
+package mo.boardgame.game;
+
+import ai.djl.MalformedModelException;
+import ai.djl.Model;
+import ai.djl.ndarray.NDArray;
+import ai.djl.ndarray.NDManager;
+import ai.djl.nn.Block;
+import ai.djl.nn.Parameter;
+import ai.djl.util.Pair;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 多线程的“左右互搏”训练流水线：K个采样线程各自持有一份AI主角模型参数的快照，用{@link VectorSelfPlayEnv}进行游戏，
+ * 每结束一局就把整局的样本放入有界的并发队列；学习线程从队列中逐局取出样本填满{@link SelfPlayEnv}的样本容器，
+ * 各局样本在容器中连续存放，训练后发布新的模型参数。
+ * 采样线程每推进一轮就检查一次是否有新参数，学习线程丢弃参数版本落后超过{@link #maxStaleness}的整局样本。
+ * 对手只支持{@link AgentType#POLICY}。
+ *
+ * @author Caojunqi
+ * @date 2022-01-23 15:00
+ */
+public final class ActorLearnerPipeline implements AutoCloseable {
+
+	private static final Logger logger = LoggerFactory.getLogger(ActorLearnerPipeline.class);
+
+	/**
+	 * 学习线程等待样本的超时，超时后检查采样线程是否出错
+	 */
+	private static final long POLL_TIMEOUT_MILLIS = 100;
+
+	/**
+	 * 学习端，样本容器与AI主角的训练均在其中
+	 */
+	private final SelfPlayEnv learnerEnv;
+	/**
+	 * 结束的游戏，每个元素是一局游戏中AI主角的全部样本
+	 */
+	private final BlockingQueue<List<SelfPlayEnv.SelfPlayEnvStep>> queue;
+	/**
+	 * 样本允许落后的最大参数版本数
+	 */
+	private final int maxStaleness;
+	/**
+	 * 采样线程共用的对手模型缓存
+	 */
+	private final ModelCache modelCache = new ModelCache(ModelCache.DEFAULT_MAX_BYTES, null);
+	private final Actor[] actors;
+	private final Thread[] actorThreads;
+
+	/**
+	 * 最近一次发布的模型参数
+	 */
+	private volatile PolicySnapshot snapshot;
+	private volatile boolean running;
+	/**
+	 * 采样线程中出现的异常，学习线程发现后终止训练
+	 */
+	private volatile Throwable failure;
+
+	private final AtomicLong producedSteps = new AtomicLong();
+	private final AtomicLong producedEpisodes = new AtomicLong();
+	private long policyVersion;
+	private long consumedSteps;
+	private long droppedSteps;
+
+	/**
+	 * @param manager       矩阵资源管理器
+	 * @param random        随机数生成器，各采样线程的随机数生成器由它派生
+	 * @param learnerEnv    学习端环境
+	 * @param numActors     采样线程数
+	 * @param envsPerActor  每个采样线程同时进行的游戏局数
+	 * @param queueCapacity 队列最多容纳的游戏局数，队列满时采样线程等待
+	 * @param maxStaleness  样本允许落后的最大参数版本数
+	 */
+	public ActorLearnerPipeline(NDManager manager,
+								Random random,
+								SelfPlayEnv learnerEnv,
+								int numActors,
+								int envsPerActor,
+								int queueCapacity,
+								int maxStaleness) {
+		Validate.isTrue(numActors > 0, "采样线程数必须为正！！numActors:%d", numActors);
+		Validate.isTrue(maxStaleness >= 0, "样本允许落后的版本数不能为负！！maxStaleness:%d", maxStaleness);
+		this.learnerEnv = learnerEnv;
+		this.queue = new ArrayBlockingQueue<>(queueCapacity);
+		this.maxStaleness = maxStaleness;
+		publish();
+
+		BaseBoardGameEnv gameEnv = learnerEnv.getGameEnv();
+		this.actors = new Actor[numActors];
+		this.actorThreads = new Thread[numActors];
+		for (int i = 0; i < numActors; i++) {
+			this.actors[i] = new Actor(manager.newSubManager(), new Random(random.nextLong()), gameEnv, envsPerActor);
+			this.actorThreads[i] = new Thread(this.actors[i]::run, "self-play-actor-" + i);
+			this.actorThreads[i].setDaemon(true);
+		}
+	}
+
+	/**
+	 * 启动采样线程，在当前线程上进行学习
+	 *
+	 * @param epochs 训练轮数，每轮用满一个样本容器训练一次
+	 */
+	public void run(int epochs) {
+		if (!this.running) {
+			this.running = true;
+			for (Thread thread : this.actorThreads) {
+				thread.start();
+			}
+		}
+		for (int epoch = 0; epoch < epochs; epoch++) {
+			long startTime = System.nanoTime();
+			long startProduced = this.producedSteps.get();
+			long startEpisodes = this.producedEpisodes.get();
+			long startConsumed = this.consumedSteps;
+			long startDropped = this.droppedSteps;
+
+			fillBuffer();
+			long trainStartTime = System.nanoTime();
+			this.learnerEnv.trainBatch();
+			long endTime = System.nanoTime();
+			this.policyVersion++;
+			publish();
+			this.learnerEnv.getOpponentSampler().refreshWinRates();
+
+			double seconds = (endTime - startTime) / 1e9;
+			double waitSeconds = (trainStartTime - startTime) / 1e9;
+			double trainSeconds = (endTime - trainStartTime) / 1e9;
+			logger.info(String.format("epoch[%d] version[%d] 采样: %.1f步/秒, %d局 | 学习: %.1f样本/秒, 等待%.2f秒, 训练%.2f秒, 丢弃过期样本%d | 队列: %d",
+					epoch, this.policyVersion,
+					(this.producedSteps.get() - startProduced) / seconds,
+					this.producedEpisodes.get() - startEpisodes,
+					(this.consumedSteps - startConsumed) / seconds,
+					waitSeconds, trainSeconds,
+					this.droppedSteps - startDropped,
+					this.queue.size()));
+		}
+	}
+
+	/**
+	 * 从队列中逐局取出样本，直到样本容器已满
+	 */
+	private void fillBuffer() {
+		this.learnerEnv.resetBuffer();
+		while (!this.learnerEnv.isBufferFull()) {
+			if (this.failure != null) {
+				throw new IllegalStateException("采样线程出错！！", this.failure);
+			}
+			List<SelfPlayEnv.SelfPlayEnvStep> episode;
+			try {
+				episode = this.queue.poll(POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("学习线程被中断！！", e);
+			}
+			if (episode == null) {
+				continue;
+			}
+			// 同一局中第一个样本的参数版本最旧
+			if (this.policyVersion - episode.get(0).getPolicyVersion() > this.maxStaleness) {
+				closeAll(episode);
+				this.droppedSteps += episode.size();
+				continue;
+			}
+			this.learnerEnv.addEpisode(episode);
+			this.consumedSteps += episode.size();
+		}
+	}
+
+	/**
+	 * 把AI主角当前的模型参数发布给采样线程
+	 */
+	private void publish() {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream os = new DataOutputStream(bytes)) {
+			this.learnerEnv.getAiModel().getBlock().saveParameters(os);
+		} catch (IOException e) {
+			throw new IllegalStateException("模型参数序列化失败！！", e);
+		}
+		this.snapshot = new PolicySnapshot(this.policyVersion, bytes.toByteArray());
+	}
+
+	@Override
+	public void close() {
+		this.running = false;
+		for (Thread thread : this.actorThreads) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		for (Actor actor : this.actors) {
+			actor.close();
+		}
+		List<SelfPlayEnv.SelfPlayEnvStep> episode;
+		while ((episode = this.queue.poll()) != null) {
+			closeAll(episode);
+		}
+		this.modelCache.close();
+	}
+
+	private static void closeAll(List<SelfPlayEnv.SelfPlayEnvStep> episode) {
+		for (SelfPlayEnv.SelfPlayEnvStep step : episode) {
+			step.close();
+		}
+	}
+
+	public long getPolicyVersion() {
+		return policyVersion;
+	}
+
+	/**
+	 * 采样线程：持有一份模型参数快照，不断推进自己的游戏并把结束的游戏放入队列
+	 */
+	private final class Actor {
+		private final NDManager manager;
+		private final Model policyModel;
+		private final VectorSelfPlayEnv vectorEnv;
+		private long version = -1;
+
+		private Actor(NDManager manager, Random random, BaseBoardGameEnv gameEnv, int numEnvs) {
+			this.manager = manager;
+			this.policyModel = gameEnv.buildBaseModel();
+			InferenceAgent.initializeIfNeeded(this.policyModel, gameEnv.getObservationShape());
+			refresh();
+			this.vectorEnv = new VectorSelfPlayEnv(manager.newSubManager(), random, gameEnv, this.policyModel,
+					learnerEnv.getOpponentType(), modelCache, learnerEnv.getOpponentSampler(), numEnvs);
+			this.vectorEnv.setPolicyVersion(this.version);
+		}
+
+		private void run() {
+			try {
+				while (running) {
+					if (refresh()) {
+						this.vectorEnv.setPolicyVersion(this.version);
+					}
+					int episodes = this.vectorEnv.getEpisodeCount();
+					this.vectorEnv.step(this::offer);
+					producedEpisodes.addAndGet(this.vectorEnv.getEpisodeCount() - episodes);
+				}
+			} catch (Throwable e) {
+				logger.error("采样线程出错！！", e);
+				failure = e;
+			}
+		}
+
+		/**
+		 * 有新发布的模型参数时载入
+		 *
+		 * @return 是否载入了新参数
+		 */
+		private boolean refresh() {
+			PolicySnapshot latest = snapshot;
+			if (latest.version == this.version) {
+				return false;
+			}
+			Block block = this.policyModel.getBlock();
+			List<NDArray> oldArrays = new ArrayList<>();
+			for (Pair<String, Parameter> pair : block.getParameters()) {
+				if (pair.getValue().isInitialized()) {
+					oldArrays.add(pair.getValue().getArray());
+				}
+			}
+			try (DataInputStream is = new DataInputStream(new ByteArrayInputStream(latest.parameters))) {
+				block.loadParameters(this.policyModel.getNDManager(), is);
+			} catch (IOException | MalformedModelException e) {
+				throw new IllegalStateException("模型参数载入失败！！version:" + latest.version, e);
+			}
+			// 载入时参数换成了新数组，旧数组立即释放
+			for (NDArray array : oldArrays) {
+				array.close();
+			}
+			this.version = latest.version;
+			return true;
+		}
+
+		/**
+		 * 把一局游戏的样本整体放入队列，队列满时等待，流水线关闭时丢弃
+		 */
+		private void offer(List<SelfPlayEnv.SelfPlayEnvStep> episode) {
+			try {
+				while (!queue.offer(episode, POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+					if (!running) {
+						closeAll(episode);
+						return;
+					}
+				}
+				producedSteps.addAndGet(episode.size());
+			} catch (InterruptedException e) {
+				closeAll(episode);
+				Thread.currentThread().interrupt();
+				running = false;
+			}
+		}
+
+		private void close() {
+			this.vectorEnv.close();
+			this.policyModel.close();
+			this.manager.close();
+		}
+	}
+
+	/**
+	 * 发布的模型参数，不可变，可在线程间共享
+	 */
+	private static final class PolicySnapshot {
+		private final long version;
+		private final byte[] parameters;
+
+		private PolicySnapshot(long version, byte[] parameters) {
+			this.version = version;
+			this.parameters = parameters;
+		}
+	}
+}
@@ -0,0 +1,131 @@
+package mo.boardgame.game;
+
+import ai.djl.Model;
+import algorithm.RlAgentCloseable;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * 对手智能体池：按模型名称缓存已构建好的智能体，每局游戏开始时借出，结束后归还，
+ * 对手模型不变时不再重复构建智能体。
+ * 模型被替换或释放前须调用{@link #retire(String)}，闲置的智能体随即关闭，尚未归还的智能体在归还时关闭。
+ * 模型缓存可能在其他线程中淘汰模型并调用{@link #retire(String)}，因此所有方法都加锁。
+ *
+ * @author Caojunqi
+ * @date 2022-01-21 15:10
+ */
+public final class AgentPool implements AutoCloseable {
+	/**
+	 * 模型名称 -> 该模型的智能体
+	 */
+	private final Map<String, PoolEntry> entries = new HashMap<>();
+	/**
+	 * 已借出的智能体 -> 所属条目
+	 */
+	private final Map<RlAgentCloseable, PoolEntry> borrowed = new IdentityHashMap<>();
+	private long createCount;
+	private long reuseCount;
+
+	/**
+	 * 借出一个使用指定模型的智能体，没有闲置的智能体时新建
+	 *
+	 * @param modelName 模型名称
+	 * @param model     模型实例，与池中同名模型不是同一实例时，旧的智能体全部作废
+	 * @param factory   新建智能体的方法
+	 * @return 智能体
+	 */
+	public synchronized RlAgentCloseable borrow(String modelName, Model model, Supplier<RlAgentCloseable> factory) {
+		PoolEntry entry = this.entries.get(modelName);
+		if (entry != null && entry.model != model) {
+			retire(modelName);
+			entry = null;
+		}
+		if (entry == null) {
+			entry = new PoolEntry(model);
+			this.entries.put(modelName, entry);
+		}
+		RlAgentCloseable agent = entry.idleAgents.poll();
+		if (agent == null) {
+			agent = factory.get();
+			this.createCount++;
+		} else {
+			this.reuseCount++;
+		}
+		this.borrowed.put(agent, entry);
+		return agent;
+	}
+
+	/**
+	 * 归还智能体，其模型已作废时直接关闭
+	 *
+	 * @param agent 借出的智能体
+	 */
+	public synchronized void giveBack(RlAgentCloseable agent) {
+		PoolEntry entry = this.borrowed.remove(agent);
+		if (entry == null || entry.retired) {
+			agent.close();
+			return;
+		}
+		entry.idleAgents.push(agent);
+	}
+
+	/**
+	 * 作废使用指定模型的所有智能体，在模型被替换或释放前调用
+	 *
+	 * @param modelName 模型名称
+	 */
+	public synchronized void retire(String modelName) {
+		PoolEntry entry = this.entries.remove(modelName);
+		if (entry == null) {
+			return;
+		}
+		entry.retired = true;
+		for (RlAgentCloseable agent : entry.idleAgents) {
+			agent.close();
+		}
+		entry.idleAgents.clear();
+	}
+
+	@Override
+	public synchronized void close() {
+		for (String modelName : this.entries.keySet().toArray(new String[0])) {
+			retire(modelName);
+		}
+		for (RlAgentCloseable agent : this.borrowed.keySet()) {
+			agent.close();
+		}
+		this.borrowed.clear();
+	}
+
+	public synchronized long getCreateCount() {
+		return createCount;
+	}
+
+	public synchronized long getReuseCount() {
+		return reuseCount;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "AgentPool{models=" + this.entries.size() +
+				", borrowed=" + this.borrowed.size() +
+				", create=" + this.createCount +
+				", reuse=" + this.reuseCount +
+				"}";
+	}
+
+	private static final class PoolEntry {
+		private final Model model;
+		private final Deque<RlAgentCloseable> idleAgents = new ArrayDeque<>();
+		private boolean retired;
+
+		private PoolEntry(Model model) {
+			this.model = model;
+		}
+	}
+}
@@ -0,0 +1,60 @@
+package mo.boardgame.game;
+
+import ai.djl.Model;
+import ai.djl.ndarray.NDManager;
+import ai.djl.ndarray.types.Shape;
+import algorithm.RlAgentCloseable;
+import mo.boardgame.game.mcts.MctsAgent;
+import mo.boardgame.game.mcts.MctsConfig;
+
+import java.util.Random;
+
+/**
+ * 使用已训练模型进行对战的智能体类型
+ *
+ * @author Caojunqi
+ * @date 2022-01-18 14:30
+ */
+public enum AgentType {
+
+	/**
+	 * 直接按策略网络的输出落子
+	 */
+	POLICY {
+		@Override
+		public RlAgentCloseable buildAgent(NDManager manager, Random random, Model model, Shape slotShape, EvaluationCache.View evaluationCache) {
+			return new InferenceAgent(manager, random, model, slotShape, evaluationCache);
+		}
+	},
+	/**
+	 * 以策略价值网络为先验和估值，进行蒙特卡洛树搜索后落子
+	 */
+	MCTS {
+		@Override
+		public RlAgentCloseable buildAgent(NDManager manager, Random random, Model model, Shape slotShape, EvaluationCache.View evaluationCache) {
+			return new MctsAgent(manager, random, model, evaluationCache, MctsConfig.DEFAULT);
+		}
+	},
+	/**
+	 * 多线程蒙特卡洛树搜索，叶节点在虚拟损失下并行选出后批量估值
+	 */
+	PARALLEL_MCTS {
+		@Override
+		public RlAgentCloseable buildAgent(NDManager manager, Random random, Model model, Shape slotShape, EvaluationCache.View evaluationCache) {
+			return new MctsAgent(manager, random, model, evaluationCache, MctsConfig.PARALLEL);
+		}
+	},
+	;
+
+	/**
+	 * 构建只做推理的智能体，模型参数在对战期间保持不变
+	 *
+	 * @param manager         智能体专用的矩阵资源管理器
+	 * @param random          随机数生成器
+	 * @param model           已初始化或已加载参数的模型，见{@link InferenceAgent#initializeIfNeeded(Model, Shape)}
+	 * @param slotShape       单个环境状态的形状，[通道, 行, 列]
+	 * @param evaluationCache 该模型的估值缓存视图，为null时不缓存
+	 * @return 智能体
+	 */
+	public abstract RlAgentCloseable buildAgent(NDManager manager, Random random, Model model, Shape slotShape, EvaluationCache.View evaluationCache);
+}
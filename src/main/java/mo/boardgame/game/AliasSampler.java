@@ -0,0 +1,93 @@
+package mo.boardgame.game;
+
+import org.apache.commons.lang3.Validate;
+
+import java.util.Random;
+
+/**
+ * 别名采样器：按给定的离散分布随机选择索引，构建别名表为O(n)，每次采样为O(1)。
+ * 采样器不可变，分布变化时需重新构建。
+ *
+ * @author Caojunqi
+ * @date 2022-01-22 15:20
+ */
+public final class AliasSampler {
+	/**
+	 * 各列保留自身索引的概率
+	 */
+	private final double[] probabilities;
+	/**
+	 * 各列未保留自身索引时选中的别名索引
+	 */
+	private final int[] aliases;
+
+	/**
+	 * Vose方法构建别名表
+	 *
+	 * @param weights 各候选项的非负权重，无需归一化，总权重不为正时等概率选择
+	 */
+	public AliasSampler(double[] weights) {
+		int size = weights.length;
+		Validate.isTrue(size > 0, "候选项不能为空！！");
+		this.probabilities = new double[size];
+		this.aliases = new int[size];
+
+		double totalWeight = 0;
+		for (double weight : weights) {
+			Validate.isTrue(weight >= 0, "权重不能为负！！weight:%f", weight);
+			totalWeight += weight;
+		}
+		double[] scaled = new double[size];
+		for (int i = 0; i < size; i++) {
+			scaled[i] = totalWeight > 0 ? weights[i] * size / totalWeight : 1;
+		}
+
+		// 两个栈共用一个数组，小于1的列从头部入栈，不小于1的列从尾部入栈
+		int[] stack = new int[size];
+		int smallTop = 0;
+		int largeTop = size;
+		for (int i = 0; i < size; i++) {
+			if (scaled[i] < 1) {
+				stack[smallTop++] = i;
+			} else {
+				stack[--largeTop] = i;
+			}
+		}
+		while (smallTop > 0 && largeTop < size) {
+			int small = stack[--smallTop];
+			int large = stack[largeTop++];
+			this.probabilities[small] = scaled[small];
+			this.aliases[small] = large;
+			scaled[large] -= 1 - scaled[small];
+			if (scaled[large] < 1) {
+				stack[smallTop++] = large;
+			} else {
+				stack[--largeTop] = large;
+			}
+		}
+		// 剩余的列只差浮点误差，视为满列
+		while (smallTop > 0) {
+			int i = stack[--smallTop];
+			this.probabilities[i] = 1;
+			this.aliases[i] = i;
+		}
+		while (largeTop < size) {
+			int i = stack[largeTop++];
+			this.probabilities[i] = 1;
+			this.aliases[i] = i;
+		}
+	}
+
+	/**
+	 * @param random 随机数生成器
+	 * @return 被选中的索引
+	 */
+	public int sample(Random random) {
+		int column = random.nextInt(this.probabilities.length);
+		return random.nextDouble() < this.probabilities[column] ? column : this.aliases[column];
+	}
+
+	public int size() {
+		return this.probabilities.length;
+	}
+}
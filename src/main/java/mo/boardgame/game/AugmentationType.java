@@ -0,0 +1,51 @@
+package mo.boardgame.game;
+
+import java.util.Random;
+
+/**
+ * 左右互搏时的样本增强方式，利用棋盘的旋转、翻转对称性扩充样本
+ *
+ * @author Caojunqi
+ * @date 2022-01-17 10:45
+ */
+public enum AugmentationType {
+
+	/**
+	 * 不增强，只存入原始样本
+	 */
+	NONE {
+		@Override
+		public DihedralTransform[] selectTransforms(Random random) {
+			return IDENTITY_ONLY;
+		}
+	},
+	/**
+	 * 每局随机选择一种对称变换，存入变换后的整局样本
+	 */
+	RANDOM {
+		@Override
+		public DihedralTransform[] selectTransforms(Random random) {
+			return new DihedralTransform[]{DihedralTransform.random(random)};
+		}
+	},
+	/**
+	 * 存入全部8种对称变换后的整局样本，每种变换的样本各自连续存放
+	 */
+	FULL {
+		@Override
+		public DihedralTransform[] selectTransforms(Random random) {
+			return DihedralTransform.all();
+		}
+	},
+	;
+
+	private static final DihedralTransform[] IDENTITY_ONLY = {DihedralTransform.IDENTITY};
+
+	/**
+	 * 选择一局游戏要存入的样本所用的对称变换，同一局的样本使用相同的变换
+	 *
+	 * @param random 随机数生成器
+	 * @return 对称变换，调用方不可修改
+	 */
+	public abstract DihedralTransform[] selectTransforms(Random random);
+}
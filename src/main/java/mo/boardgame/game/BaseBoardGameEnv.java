@@ -3,10 +3,18 @@ package mo.boardgame.game;
 import ai.djl.Model;
 import ai.djl.modality.rl.ActionSpace;
 import ai.djl.modality.rl.env.RlEnv;
+import ai.djl.ndarray.NDArray;
 import ai.djl.ndarray.NDList;
 import ai.djl.ndarray.NDManager;
+import ai.djl.ndarray.types.DataType;
 import ai.djl.ndarray.types.Shape;
+import org.apache.commons.lang3.Validate;
 
+import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
 import java.util.Random;
 
 /**
@@ -16,6 +24,11 @@ import java.util.Random;
  * @date 2021-11-26 16:14
  */
 public abstract class BaseBoardGameEnv implements RlEnv, IEnvRender {
+	/**
+	 * 没有胜者（棋局未结束或平局）
+	 */
+	public static final int NO_WINNER = -1;
+
 	protected NDManager manager;
 	protected Random random;
 	/**
@@ -34,6 +47,55 @@ public abstract class BaseBoardGameEnv implements RlEnv, IEnvRender {
 	 * 当前行动玩家索引，取值范围为[0, playerNum-1]
 	 */
 	private int curPlayerId;
+	/**
+	 * 用于构建环境状态的管理器，每局游戏开始时重建，可避免内存泄漏
+	 */
+	private NDManager observationManager;
+	/**
+	 * 单个环境状态的形状，[通道, 行, 列]
+	 */
+	private Shape observationSlotShape;
+	/**
+	 * 预分配的直接内存，环境状态先写入此处，再整块拷贝到NDArray中
+	 */
+	private FloatBuffer observationBuffer;
+	/**
+	 * 预分配的环境状态NDArray，{@link #getObservationView()}每次原地更新并返回它，不再新分配native内存。
+	 * 由{@link #observationManager}管理，每局游戏只分配一次。
+	 */
+	private NDArray observationView;
+	/**
+	 * 局面哈希所用的Zobrist随机键
+	 */
+	private ZobristTable zobristTable;
+	/**
+	 * 当前局面的64位哈希值，随落子及行动玩家的切换增量更新
+	 */
+	private long positionHash;
+	/**
+	 * 落子历史，按先后顺序记录每一步的落子位置
+	 */
+	private int[] moveHistory;
+	/**
+	 * 当前已走步数
+	 */
+	private int moveCount;
+	/**
+	 * 游戏是否结束
+	 */
+	private boolean done;
+	/**
+	 * 胜者玩家索引，没有胜者时为{@link #NO_WINNER}
+	 */
+	private int winner;
+	/**
+	 * 棋局是否因非法落子而结束
+	 */
+	private boolean forfeited;
+	/**
+	 * 导致判负的非法落子位置，只在{@link #forfeited}为true时有效
+	 */
+	private int forfeitMove;
 
 	public BaseBoardGameEnv(NDManager manager, Random random, String name, int playerNum, boolean verbose) {
 		this.manager = manager;
@@ -41,13 +103,31 @@ public abstract class BaseBoardGameEnv implements RlEnv, IEnvRender {
 		this.name = name;
 		this.playerNum = playerNum;
 		this.verbose = verbose;
+		this.observationManager = manager.newSubManager();
 	}
 
 	/**
-	 * 注：此接口重写的目的是为了把Access权限由package扩展到public
+	 * 返回当前行动玩家视角的环境状态，每次调用都新分配一个NDArray，由{@link #observationManager}管理，有效期至下一局开始
 	 */
 	@Override
-	public abstract NDList getObservation();
+	public NDList getObservation() {
+		return buildObservation();
+	}
+
+	/**
+	 * 返回当前行动玩家视角的环境状态，供逐步轮询环境的热点路径使用，不新分配native内存。
+	 * {@link #step(NDList, boolean)}返回的Step的前环境状态也借用此NDArray。
+	 * 注：返回的NDArray是预分配并被复用的，下次调用本方法或step时内容即被覆盖，调用方不可长期持有，也不可关闭或将其attach到其他管理器；
+	 * 需要长期持有时请使用{@link #getObservation()}，或自行拷贝。
+	 */
+	public NDList getObservationView() {
+		if (this.observationView == null || this.observationView.getManager() != this.observationManager) {
+			// 尚未分配，或已被调用方attach到其他管理器，重新分配
+			this.observationView = this.observationManager.create(this.observationSlotShape, DataType.FLOAT32);
+		}
+		this.observationView.set(fillObservationBuffer());
+		return new NDList(this.observationView);
+	}
 
 	/**
 	 * 注：此接口重写的目的是为了把Access权限由package扩展到public
@@ -55,6 +135,166 @@ public abstract class BaseBoardGameEnv implements RlEnv, IEnvRender {
 	@Override
 	public abstract ActionSpace getActionSpace();
 
+	/**
+	 * 轻量落子：只修改原始类型的棋局状态（棋盘、环境状态平面、局面哈希、落子历史），
+	 * 不构建NDArray，不分配Step，也不绘制，供树搜索和快速推演使用。
+	 *
+	 * @param move 落子位置，必须合法
+	 * @return true-棋局因此步而结束；false-棋局继续
+	 */
+	public boolean play(int move) {
+		// 热点路径，不用Validate，以免每次调用都分配可变参数数组并装箱
+		if (this.done) {
+			throw new IllegalStateException("棋局已结束，不能继续落子！！");
+		}
+		if (!isLegal(move)) {
+			throw new IllegalArgumentException(String.format("非法落子！！move:%d", move));
+		}
+		int playerId = this.curPlayerId;
+		boolean win = placeStone(move, playerId);
+		togglePositionHash(move, playerId);
+		this.moveHistory[this.moveCount++] = move;
+		if (win) {
+			this.done = true;
+			this.winner = playerId;
+		} else if (this.moveCount == this.moveHistory.length) {
+			this.done = true;
+		}
+		setCurPlayerId((playerId + 1) % this.playerNum);
+		return this.done;
+	}
+
+	/**
+	 * 撤销最近一次{@link #play(int)}，棋局状态完全恢复到落子之前
+	 */
+	public void undo() {
+		if (this.forfeited) {
+			throw new IllegalStateException("非法落子导致的终局不能悔棋！！");
+		}
+		if (this.moveCount <= 0) {
+			throw new IllegalStateException("没有可以撤销的落子！！");
+		}
+		int playerId = (this.curPlayerId + this.playerNum - 1) % this.playerNum;
+		int move = this.moveHistory[--this.moveCount];
+		setCurPlayerId(playerId);
+		togglePositionHash(move, playerId);
+		removeStone(move, playerId);
+		this.done = false;
+		this.winner = NO_WINNER;
+	}
+
+	/**
+	 * 当前玩家非法落子，直接判负，棋局结束。
+	 * 棋盘不发生变化，但行动权仍会交给下一位玩家，与正常落子保持一致。
+	 *
+	 * @param move 非法的落子位置
+	 */
+	protected void forfeit(int move) {
+		int playerId = this.curPlayerId;
+		this.done = true;
+		this.forfeited = true;
+		this.forfeitMove = move;
+		this.winner = this.playerNum == 2 ? (playerId + 1) % this.playerNum : NO_WINNER;
+		setCurPlayerId((playerId + 1) % this.playerNum);
+	}
+
+	/**
+	 * 捕获当前棋局状态，只拷贝原始类型数据，代价与棋盘大小成正比
+	 *
+	 * @return 不可变的棋局状态快照
+	 */
+	public BoardGameState snapshot() {
+		byte[] squares = new byte[getActionNum()];
+		for (int i = 0; i < squares.length; i++) {
+			squares[i] = (byte) getSquarePlayerId(i);
+		}
+		return new BoardGameState(this.name, squares, Arrays.copyOf(this.moveHistory, this.moveCount),
+				this.curPlayerId, this.positionHash, this.done, this.winner, this.forfeited, this.forfeited ? this.forfeitMove : -1);
+	}
+
+	/**
+	 * 将棋局恢复到快照所记录的状态，快照可以来自同一游戏的任意环境实例。
+	 * 棋盘与环境状态平面直接按快照重建，不重放落子序列。
+	 * 注：已经构建出的环境状态NDArray不受影响。
+	 *
+	 * @param state 棋局状态快照
+	 */
+	public void restore(BoardGameState state) {
+		Validate.isTrue(this.name.equals(state.getGameName()) && getActionNum() == state.getNumSquares(),
+				"棋局快照与当前游戏不匹配！！state:%s, env:%s", state.getGameName(), this.name);
+		state.copyMoves(this.moveHistory);
+		this.moveCount = state.getMoveCount();
+		this.curPlayerId = state.getCurPlayerId();
+		this.positionHash = state.getPositionHash();
+		this.done = state.isDone();
+		this.winner = state.getWinner();
+		this.forfeited = state.isForfeited();
+		this.forfeitMove = state.getForfeitMove();
+		restoreBoard(state);
+	}
+
+	/**
+	 * 构建一个同类型的新环境实例，并恢复到当前棋局状态。
+	 * 新实例不绘制，使用独立的管理器，可交给其他线程使用。
+	 *
+	 * @param manager 新实例的矩阵资源管理器
+	 * @param random  新实例的随机数生成器
+	 * @return 新环境实例
+	 */
+	public BaseBoardGameEnv fork(NDManager manager, Random random) {
+		BaseBoardGameEnv env;
+		try {
+			Constructor<? extends BaseBoardGameEnv> constructor = getClass().getConstructor(NDManager.class, Random.class, boolean.class);
+			env = constructor.newInstance(manager, random, false);
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+		env.restore(snapshot());
+		return env;
+	}
+
+	/**
+	 * @param square 棋盘位置索引
+	 * @return 该位置上落子的玩家索引，无人落子时返回-1
+	 */
+	public abstract int getSquarePlayerId(int square);
+
+	/**
+	 * @param move 落子位置
+	 * @return 当前玩家是否可以在该位置落子
+	 */
+	public abstract boolean isLegal(int move);
+
+	/**
+	 * @return 行为空间大小，即棋盘上的格子数
+	 */
+	public abstract int getActionNum();
+
+	/**
+	 * 在棋盘上放置一枚棋子，并增量更新环境状态平面，调用方已保证落子合法
+	 *
+	 * @param square   落子位置
+	 * @param playerId 落子玩家索引
+	 * @return true-该玩家因此步连成一线获胜；false-尚未获胜
+	 */
+	protected abstract boolean placeStone(int square, int playerId);
+
+	/**
+	 * 从棋盘上移除一枚棋子，并恢复环境状态平面，是{@link #placeStone(int, int)}的逆操作。
+	 * 调用时落子历史已经回退，{@link #getMoveCount()}不再包含该步。
+	 *
+	 * @param square   棋子位置
+	 * @param playerId 棋子所属玩家索引
+	 */
+	protected abstract void removeStone(int square, int playerId);
+
+	/**
+	 * 按快照重建棋盘及所有环境状态平面，调用时落子历史、当前行动玩家等已经恢复
+	 *
+	 * @param state 棋局状态快照
+	 */
+	protected abstract void restoreBoard(BoardGameState state);
+
 	/**
 	 * 每个游戏构建自己的Actor-Critic模型，以供PPO算法使用
 	 *
@@ -64,6 +304,114 @@ public abstract class BaseBoardGameEnv implements RlEnv, IEnvRender {
 
 	public abstract Shape getObservationShape();
 
+	/**
+	 * 将当前行动玩家视角的环境状态按[通道, 行, 列]顺序写入buffer
+	 *
+	 * @param buffer 目标缓冲区，从其当前位置开始写入
+	 */
+	public abstract void writeObservation(FloatBuffer buffer);
+
+	/**
+	 * 初始化环境状态的预分配内存，子类需在构造时调用
+	 *
+	 * @param channels   环境状态通道数
+	 * @param gridLength 棋盘长宽
+	 */
+	protected void initObservationSlot(int channels, int gridLength) {
+		this.observationSlotShape = new Shape(channels, gridLength, gridLength);
+		this.observationBuffer = ByteBuffer.allocateDirect(channels * gridLength * gridLength * Float.BYTES)
+				.order(ByteOrder.nativeOrder())
+				.asFloatBuffer();
+	}
+
+	/**
+	 * 构建一份可长期持有的当前环境状态，只需一次native分配和一次整块拷贝，由{@link #observationManager}管理
+	 *
+	 * @return 当前行动玩家视角的环境状态
+	 */
+	protected NDList buildObservation() {
+		return new NDList(this.observationManager.create(fillObservationBuffer(), this.observationSlotShape, DataType.FLOAT32));
+	}
+
+	/**
+	 * 释放上一局游戏中构建的所有环境状态，每局游戏开始时调用
+	 */
+	protected void resetObservationManager() {
+		this.observationManager.close();
+		this.observationManager = this.manager.newSubManager();
+		this.observationView = null;
+	}
+
+	/**
+	 * 设置局面哈希所用的Zobrist随机键，子类需在构造时调用
+	 */
+	protected void initZobristTable(ZobristTable zobristTable) {
+		this.zobristTable = zobristTable;
+	}
+
+	/**
+	 * 初始化落子历史，子类需在构造时调用
+	 *
+	 * @param maxMoves 一局游戏最多的落子数
+	 */
+	protected void initMoveHistory(int maxMoves) {
+		this.moveHistory = new int[maxMoves];
+	}
+
+	/**
+	 * 重置为开局状态：先手行动、无落子历史、局面哈希为空棋盘，每局游戏开始时调用
+	 */
+	protected void resetGameState() {
+		setCurPlayerId(0);
+		this.positionHash = this.zobristTable.sideKey(this.curPlayerId);
+		this.moveCount = 0;
+		this.done = false;
+		this.winner = NO_WINNER;
+		this.forfeited = false;
+	}
+
+	/**
+	 * 在局面哈希中加入或移除一枚棋子，落子和悔棋都调用此方法
+	 *
+	 * @param square   棋盘位置索引
+	 * @param playerId 棋子所属玩家索引
+	 */
+	private void togglePositionHash(int square, int playerId) {
+		this.positionHash ^= this.zobristTable.pieceKey(playerId, square);
+	}
+
+	/**
+	 * 当前局面的64位哈希值，包含棋盘上所有棋子以及当前行动玩家。
+	 * 可用作神经网络估值缓存、置换表、样本去重等以局面为键的结构的键。
+	 *
+	 * @return 局面哈希
+	 */
+	public long getPositionHash() {
+		return positionHash;
+	}
+
+	/**
+	 * 神经网络估值缓存的键：必须能唯一确定{@link #writeObservation(FloatBuffer)}写出的环境状态。
+	 * 环境状态只由棋子和行动玩家决定时即为局面哈希；环境状态还包含其他信息时，子类需要把这些信息混入。
+	 *
+	 * @return 估值缓存键
+	 */
+	public long getEvaluationKey() {
+		return this.positionHash;
+	}
+
+	private FloatBuffer fillObservationBuffer() {
+		FloatBuffer buffer = this.observationBuffer;
+		buffer.clear();
+		writeObservation(buffer);
+		buffer.flip();
+		return buffer;
+	}
+
+	public Shape getObservationSlotShape() {
+		return observationSlotShape;
+	}
+
 	@Override
 	public Step[] getBatch() {
 		throw new IllegalStateException("BoardGameEnv does not provide any sample batch!!");
@@ -74,6 +422,46 @@ public abstract class BaseBoardGameEnv implements RlEnv, IEnvRender {
 		manager.close();
 	}
 
+	public boolean isDone() {
+		return done;
+	}
+
+	/**
+	 * @return 胜者玩家索引，棋局未结束或平局时返回{@link #NO_WINNER}
+	 */
+	public int getWinner() {
+		return winner;
+	}
+
+	/**
+	 * @return 棋局是否因非法落子而结束
+	 */
+	public boolean isForfeited() {
+		return forfeited;
+	}
+
+	/**
+	 * @return 导致判负的非法落子位置，只在{@link #isForfeited()}为true时有效
+	 */
+	public int getForfeitMove() {
+		return forfeitMove;
+	}
+
+	public int getMoveCount() {
+		return moveCount;
+	}
+
+	/**
+	 * @param index 第几步，从0开始
+	 * @return 该步的落子位置
+	 */
+	public int getMove(int index) {
+		if (index < 0 || index >= this.moveCount) {
+			throw new IllegalArgumentException(String.format("落子历史索引越界！！index:%d", index));
+		}
+		return this.moveHistory[index];
+	}
+
 	public Random getRandom() {
 		return random;
 	}
@@ -95,6 +483,9 @@ public abstract class BaseBoardGameEnv implements RlEnv, IEnvRender {
 	}
 
 	public void setCurPlayerId(int curPlayerId) {
+		if (this.zobristTable != null) {
+			this.positionHash ^= this.zobristTable.sideKey(this.curPlayerId) ^ this.zobristTable.sideKey(curPlayerId);
+		}
 		this.curPlayerId = curPlayerId;
 	}
 }
@@ -0,0 +1,69 @@
+package mo.boardgame.game;
+
+import ai.djl.modality.rl.ActionSpace;
+import ai.djl.modality.rl.env.RlEnv;
+import ai.djl.ndarray.NDArray;
+import ai.djl.ndarray.NDList;
+import ai.djl.ndarray.NDManager;
+
+/**
+ * 样本容器取样时构建的样本，张量由容器的批量管理器统一释放
+ *
+ * @author Caojunqi
+ * @date 2022-01-25 10:30
+ */
+final class BatchStep implements RlEnv.Step {
+	private final NDManager manager;
+	private final NDList preObservation;
+	private final NDList action;
+	private final NDList postObservation;
+	private final ActionSpace actionSpace;
+	private final float reward;
+	private final boolean done;
+
+	BatchStep(NDManager manager, NDList preObservation, NDList action, NDList postObservation,
+			  ActionSpace actionSpace, float reward, boolean done) {
+		this.manager = manager;
+		this.preObservation = preObservation;
+		this.action = action;
+		this.postObservation = postObservation;
+		this.actionSpace = actionSpace;
+		this.reward = reward;
+		this.done = done;
+	}
+
+	@Override
+	public NDList getPreObservation() {
+		return preObservation;
+	}
+
+	@Override
+	public NDList getAction() {
+		return action;
+	}
+
+	@Override
+	public NDList getPostObservation() {
+		return postObservation;
+	}
+
+	@Override
+	public ActionSpace getPostActionSpace() {
+		return actionSpace;
+	}
+
+	@Override
+	public NDArray getReward() {
+		return manager.create(reward);
+	}
+
+	@Override
+	public boolean isDone() {
+		return done;
+	}
+
+	@Override
+	public void close() {
+		// 张量由批量管理器统一释放
+	}
+}
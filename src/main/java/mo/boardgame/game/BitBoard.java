@@ -0,0 +1,183 @@
+package mo.boardgame.game;
+
+import java.util.Arrays;
+
+/**
+ * 位棋盘：每个玩家的落子各用一组long位图表示，另有一组位图记录所有已落子位置。
+ * 棋盘位置索引与动作索引一致，即 square = h * gridLength + w。
+ *
+ * @author Caojunqi
+ * @date 2022-01-10 10:12
+ */
+public final class BitBoard {
+	/**
+	 * 每个long可以容纳的棋盘位置数
+	 */
+	private static final int WORD_BITS = Long.SIZE;
+	/**
+	 * 无人落子时的玩家索引
+	 */
+	public static final int NO_PLAYER = -1;
+
+	/**
+	 * 棋盘长宽
+	 */
+	private final int gridLength;
+	/**
+	 * 棋盘上格子数量
+	 */
+	private final int numSquares;
+	/**
+	 * 每张位图所需的long数量
+	 */
+	private final int wordNum;
+	/**
+	 * 各玩家的落子位图，第一维为玩家索引
+	 */
+	private final long[][] playerBits;
+	/**
+	 * 所有已落子位置的位图
+	 */
+	private final long[] occupied;
+	/**
+	 * 当前棋盘上的棋子数
+	 */
+	private int stoneCount;
+
+	public BitBoard(int gridLength, int playerNum) {
+		this.gridLength = gridLength;
+		this.numSquares = gridLength * gridLength;
+		this.wordNum = (this.numSquares + WORD_BITS - 1) / WORD_BITS;
+		this.playerBits = new long[playerNum][this.wordNum];
+		this.occupied = new long[this.wordNum];
+	}
+
+	/**
+	 * 清空棋盘，不重新分配内存
+	 */
+	public void clear() {
+		for (long[] bits : this.playerBits) {
+			Arrays.fill(bits, 0L);
+		}
+		Arrays.fill(this.occupied, 0L);
+		this.stoneCount = 0;
+	}
+
+	/**
+	 * 在指定位置落子，调用方需保证该位置为空
+	 *
+	 * @param square   棋盘位置索引
+	 * @param playerId 落子玩家索引
+	 */
+	public void place(int square, int playerId) {
+		int word = square >>> 6;
+		long mask = 1L << square;
+		this.playerBits[playerId][word] |= mask;
+		this.occupied[word] |= mask;
+		this.stoneCount++;
+	}
+
+	/**
+	 * 移除指定位置上的棋子，调用方需保证该位置有子
+	 *
+	 * @param square 棋盘位置索引
+	 */
+	public void remove(int square) {
+		int word = square >>> 6;
+		long mask = ~(1L << square);
+		for (long[] bits : this.playerBits) {
+			bits[word] &= mask;
+		}
+		this.occupied[word] &= mask;
+		this.stoneCount--;
+	}
+
+	public boolean isEmpty(int square) {
+		return (this.occupied[square >>> 6] & (1L << square)) == 0;
+	}
+
+	public boolean isPlayer(int square, int playerId) {
+		return (this.playerBits[playerId][square >>> 6] & (1L << square)) != 0;
+	}
+
+	/**
+	 * @param square 棋盘位置索引
+	 * @return 该位置上落子的玩家索引，无人落子时返回{@link #NO_PLAYER}
+	 */
+	public int getPlayerId(int square) {
+		if (isEmpty(square)) {
+			return NO_PLAYER;
+		}
+		for (int i = 0; i < this.playerBits.length; i++) {
+			if (isPlayer(square, i)) {
+				return i;
+			}
+		}
+		return NO_PLAYER;
+	}
+
+	/**
+	 * 判断玩家在square落子后是否连成一线。
+	 * 只扫描经过该位置的横、竖及两条斜线，代价与棋盘上的棋子总数无关。
+	 *
+	 * @param square   刚刚落子的棋盘位置索引
+	 * @param playerId 落子玩家索引
+	 * @param nInRow   获胜所需的连子数
+	 * @return true-已连成一线；false-尚未连成一线
+	 */
+	public boolean isWinningMove(int square, int playerId, int nInRow) {
+		int h = square / this.gridLength;
+		int w = square % this.gridLength;
+		return countLine(h, w, playerId, 0, 1) >= nInRow
+				|| countLine(h, w, playerId, 1, 0) >= nInRow
+				|| countLine(h, w, playerId, 1, 1) >= nInRow
+				|| countLine(h, w, playerId, 1, -1) >= nInRow;
+	}
+
+	/**
+	 * 统计经过(h, w)、方向为(dh, dw)的直线上，该玩家的连续棋子数（含(h, w)本身）
+	 */
+	private int countLine(int h, int w, int playerId, int dh, int dw) {
+		return 1 + countDirection(h, w, playerId, dh, dw) + countDirection(h, w, playerId, -dh, -dw);
+	}
+
+	/**
+	 * 统计从(h, w)出发、沿(dh, dw)方向，该玩家的连续棋子数（不含(h, w)本身）
+	 */
+	private int countDirection(int h, int w, int playerId, int dh, int dw) {
+		int count = 0;
+		int curH = h + dh;
+		int curW = w + dw;
+		while (curH >= 0 && curH < this.gridLength && curW >= 0 && curW < this.gridLength
+				&& isPlayer(curH * this.gridLength + curW, playerId)) {
+			count++;
+			curH += dh;
+			curW += dw;
+		}
+		return count;
+	}
+
+	/**
+	 * @param playerId 玩家索引
+	 * @return 该玩家的落子位图，只读
+	 */
+	public long[] getPlayerBits(int playerId) {
+		return this.playerBits[playerId];
+	}
+
+	public int getStoneCount() {
+		return stoneCount;
+	}
+
+	public int getGridLength() {
+		return gridLength;
+	}
+
+	public int getNumSquares() {
+		return numSquares;
+	}
+
+	public int getWordNum() {
+		return wordNum;
+	}
+}
@@ -0,0 +1,160 @@
+package mo.boardgame.game;
+
+import org.apache.commons.lang3.Validate;
+
+import java.util.Arrays;
+
+/**
+ * 棋局状态快照：只由原始类型数组构成，不可变，不持有任何NDArray或界面对象。
+ * 可以从任意{@link BaseBoardGameEnv}中捕获，再恢复到同一游戏的另一个环境实例中，
+ * 供并行推演、搜索线程分叉局面使用，无需重放落子序列，也无需跨线程共享NDArray。
+ *
+ * @author Caojunqi
+ * @date 2022-01-14 10:30
+ */
+public final class BoardGameState {
+	/**
+	 * 游戏名称，恢复时用于校验
+	 */
+	private final String gameName;
+	/**
+	 * 各棋盘位置上落子的玩家索引，无人落子时为-1
+	 */
+	private final byte[] squares;
+	/**
+	 * 落子历史
+	 */
+	private final int[] moves;
+	/**
+	 * 当前行动玩家索引
+	 */
+	private final int curPlayerId;
+	/**
+	 * 局面哈希
+	 */
+	private final long positionHash;
+	/**
+	 * 游戏是否结束
+	 */
+	private final boolean done;
+	/**
+	 * 胜者玩家索引
+	 */
+	private final int winner;
+	/**
+	 * 棋局是否因非法落子而结束
+	 */
+	private final boolean forfeited;
+	/**
+	 * 导致判负的非法落子位置，没有判负时为-1
+	 */
+	private final int forfeitMove;
+
+	BoardGameState(String gameName, byte[] squares, int[] moves, int curPlayerId, long positionHash,
+				   boolean done, int winner, boolean forfeited, int forfeitMove) {
+		this.gameName = gameName;
+		this.squares = squares;
+		this.moves = moves;
+		this.curPlayerId = curPlayerId;
+		this.positionHash = positionHash;
+		this.done = done;
+		this.winner = winner;
+		this.forfeited = forfeited;
+		this.forfeitMove = forfeitMove;
+	}
+
+	public String getGameName() {
+		return gameName;
+	}
+
+	public int getNumSquares() {
+		return squares.length;
+	}
+
+	/**
+	 * @param square 棋盘位置索引
+	 * @return 该位置上落子的玩家索引，无人落子时返回-1
+	 */
+	public int getSquarePlayerId(int square) {
+		return squares[square];
+	}
+
+	public int getMoveCount() {
+		return moves.length;
+	}
+
+	/**
+	 * @param index 第几步，从0开始
+	 * @return 该步的落子位置
+	 */
+	public int getMove(int index) {
+		Validate.isTrue(index >= 0 && index < this.moves.length, "落子历史索引越界！！index:%d", index);
+		return moves[index];
+	}
+
+	/**
+	 * @return 最后一步的落子位置，尚未落子时返回-1
+	 */
+	public int getLastMove() {
+		return moves.length > 0 ? moves[moves.length - 1] : -1;
+	}
+
+	public int getCurPlayerId() {
+		return curPlayerId;
+	}
+
+	public long getPositionHash() {
+		return positionHash;
+	}
+
+	public boolean isDone() {
+		return done;
+	}
+
+	public int getWinner() {
+		return winner;
+	}
+
+	public boolean isForfeited() {
+		return forfeited;
+	}
+
+	/**
+	 * @return 导致判负的非法落子位置，没有判负时返回-1
+	 */
+	public int getForfeitMove() {
+		return forfeitMove;
+	}
+
+	/**
+	 * 将落子历史拷贝到目标数组开头
+	 */
+	void copyMoves(int[] dest) {
+		System.arraycopy(this.moves, 0, dest, 0, this.moves.length);
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof BoardGameState)) {
+			return false;
+		}
+		BoardGameState that = (BoardGameState) o;
+		return curPlayerId == that.curPlayerId
+				&& positionHash == that.positionHash
+				&& done == that.done
+				&& winner == that.winner
+				&& forfeited == that.forfeited
+				&& forfeitMove == that.forfeitMove
+				&& gameName.equals(that.gameName)
+				&& Arrays.equals(squares, that.squares)
+				&& Arrays.equals(moves, that.moves);
+	}
+
+	@Override
+	public int hashCode() {
+		return Long.hashCode(positionHash);
+	}
+}
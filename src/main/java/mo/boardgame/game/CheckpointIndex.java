@@ -0,0 +1,219 @@
+package mo.boardgame.game;
+
+import mo.boardgame.common.ConstantParameter;
+import org.apache.commons.io.FilenameUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 训练好的模型的内存索引：每个游戏一个实例，启动时扫描一次模型目录，此后通过{@link WatchService}跟踪目录中模型文件的增删。
+ * 模型文件须在临时子目录中写完后再原子地移入模型目录（见{@link ModelTrainingListener}），因此新文件出现时即可读取。
+ * 索引按epoch从小到大排列，最佳模型、按排名取模型、随机取模型均为O(1)。
+ * 索引内容以不可变列表整体替换，读取时不加锁。
+ *
+ * @author Caojunqi
+ * @date 2022-01-22 10:30
+ */
+public final class CheckpointIndex implements AutoCloseable {
+
+	private static final Logger logger = LoggerFactory.getLogger(CheckpointIndex.class);
+
+	/**
+	 * 用于从模型名称中获取到epoch信息的正则表达式
+	 */
+	private static final Pattern EPOCH_PATTERN = Pattern.compile(Pattern.quote(ConstantParameter.BEST_MODEL_PREFIX) + "-(\\d{4})");
+	/**
+	 * 游戏名称 -> 索引
+	 */
+	private static final Map<String, CheckpointIndex> INDEXES = new ConcurrentHashMap<>();
+
+	private final String gameName;
+	private final Path modelDir;
+	private final WatchService watchService;
+	private final Thread watchThread;
+	/**
+	 * 按epoch从小到大排列的模型名称
+	 */
+	private volatile List<String> modelNames = Collections.emptyList();
+
+	private CheckpointIndex(String gameName) {
+		this.gameName = gameName;
+		this.modelDir = Paths.get(ConstantParameter.MODEL_DIR + gameName + ConstantParameter.DIR_SEPARATOR);
+		try {
+			Files.createDirectories(this.modelDir);
+			this.watchService = this.modelDir.getFileSystem().newWatchService();
+			this.modelDir.register(this.watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE);
+		} catch (IOException e) {
+			throw new IllegalStateException("模型目录监听失败！！目录：" + this.modelDir, e);
+		}
+		rescan();
+		this.watchThread = new Thread(this::watch, "checkpoint-index-" + gameName);
+		this.watchThread.setDaemon(true);
+		this.watchThread.start();
+	}
+
+	/**
+	 * @param gameName 游戏名称
+	 * @return 该游戏的模型索引，首次获取时创建
+	 */
+	public static CheckpointIndex of(String gameName) {
+		return INDEXES.computeIfAbsent(gameName, CheckpointIndex::new);
+	}
+
+	/**
+	 * @param modelName 模型名称，形如best-0001
+	 * @return 模型的epoch，名称不规范时返回null
+	 */
+	public static String parseEpoch(String modelName) {
+		Matcher m = EPOCH_PATTERN.matcher(modelName);
+		return m.matches() ? m.group(1) : null;
+	}
+
+	public boolean isEmpty() {
+		return this.modelNames.isEmpty();
+	}
+
+	public int size() {
+		return this.modelNames.size();
+	}
+
+	/**
+	 * @return 最佳模型，即epoch最大的模型，没有模型时返回null
+	 */
+	public String getBest() {
+		List<String> names = this.modelNames;
+		return names.isEmpty() ? null : names.get(names.size() - 1);
+	}
+
+	/**
+	 * @param rank 排名，0为epoch最小的模型
+	 * @return 该排名的模型
+	 */
+	public String get(int rank) {
+		return this.modelNames.get(rank);
+	}
+
+	/**
+	 * @return 随机选择的模型，没有模型时返回null
+	 */
+	public String getRandom(Random random) {
+		List<String> names = this.modelNames;
+		return names.isEmpty() ? null : names.get(random.nextInt(names.size()));
+	}
+
+	/**
+	 * @return 按epoch从小到大排列的所有模型，不可修改
+	 */
+	public List<String> getAll() {
+		return this.modelNames;
+	}
+
+	@Override
+	public void close() {
+		INDEXES.remove(this.gameName, this);
+		try {
+			this.watchService.close();
+		} catch (IOException e) {
+			logger.warn("关闭模型目录监听失败！！", e);
+		}
+	}
+
+	/**
+	 * 监听线程：模型文件增删时增量更新索引，事件溢出时重新扫描目录
+	 */
+	private void watch() {
+		while (true) {
+			WatchKey key;
+			try {
+				key = this.watchService.take();
+			} catch (InterruptedException | ClosedWatchServiceException e) {
+				return;
+			}
+			for (WatchEvent<?> event : key.pollEvents()) {
+				if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+					rescan();
+					continue;
+				}
+				String modelName = modelName((Path) event.context());
+				if (modelName == null) {
+					continue;
+				}
+				if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+					add(modelName);
+				} else {
+					remove(modelName);
+				}
+			}
+			if (!key.reset()) {
+				logger.warn("模型目录已不可访问，停止监听！！目录：" + this.modelDir);
+				return;
+			}
+		}
+	}
+
+	private synchronized void rescan() {
+		List<String> names = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.modelDir)) {
+			for (Path path : stream) {
+				String modelName = modelName(path.getFileName());
+				if (modelName != null) {
+					names.add(modelName);
+				}
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("模型目录扫描失败！！目录：" + this.modelDir, e);
+		}
+		Collections.sort(names);
+		this.modelNames = Collections.unmodifiableList(names);
+	}
+
+	private synchronized void add(String modelName) {
+		List<String> names = this.modelNames;
+		int index = Collections.binarySearch(names, modelName);
+		if (index >= 0) {
+			return;
+		}
+		List<String> newNames = new ArrayList<>(names.size() + 1);
+		newNames.addAll(names);
+		newNames.add(-index - 1, modelName);
+		this.modelNames = Collections.unmodifiableList(newNames);
+	}
+
+	private synchronized void remove(String modelName) {
+		List<String> names = this.modelNames;
+		int index = Collections.binarySearch(names, modelName);
+		if (index < 0) {
+			return;
+		}
+		List<String> newNames = new ArrayList<>(names);
+		newNames.remove(index);
+		this.modelNames = Collections.unmodifiableList(newNames);
+	}
+
+	/**
+	 * @return 模型文件对应的模型名称，不是模型文件时返回null
+	 */
+	private static String modelName(Path fileName) {
+		String modelName = FilenameUtils.removeExtension(fileName.toString());
+		return parseEpoch(modelName) == null ? null : modelName;
+	}
+}
@@ -0,0 +1,234 @@
+package mo.boardgame.game;
+
+import ai.djl.modality.rl.ActionSpace;
+import ai.djl.modality.rl.ReplayBuffer;
+import ai.djl.modality.rl.env.RlEnv;
+import ai.djl.ndarray.NDArray;
+import ai.djl.ndarray.NDList;
+import ai.djl.ndarray.NDManager;
+import ai.djl.ndarray.types.DataType;
+import ai.djl.ndarray.types.Shape;
+import org.apache.commons.lang3.Validate;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+/**
+ * 紧凑的样本容器：所有样本存放在一块连续的堆外内存中，环境状态按每格2位打包，另存行为索引、收益和终局标志。
+ * 存入时拷贝样本内容，容器不持有任何NDArray；取样时才在批量管理器中构建张量，下次取样或关闭容器时释放。
+ * 环境状态的取值只能是0、1、-1，棋类游戏的各通道均满足。
+ * 容器已满后循环覆盖最早的样本。
+ *
+ * @author Caojunqi
+ * @date 2022-01-24 10:30
+ */
+public final class CompactReplayBuffer implements ReplayBuffer, AutoCloseable {
+	/**
+	 * 每格所占的位数
+	 */
+	private static final int BITS_PER_CELL = 2;
+	private static final int CELLS_PER_WORD = Long.SIZE / BITS_PER_CELL;
+	private static final long CELL_MASK = (1L << BITS_PER_CELL) - 1;
+	/**
+	 * 各取值的编码
+	 */
+	private static final long CODE_ZERO = 0;
+	private static final long CODE_ONE = 1;
+	private static final long CODE_MINUS_ONE = 2;
+
+	private final NDManager manager;
+	private final Random random;
+	private final int batchSize;
+	private final int capacity;
+	/**
+	 * 单个环境状态的形状，[通道, 行, 列]
+	 */
+	private final Shape slotShape;
+	private final int slotSize;
+	/**
+	 * 单个环境状态打包后所占的long数
+	 */
+	private final int wordsPerObservation;
+	private final int recordBytes;
+	private final int postOffset;
+	private final int actionOffset;
+	private final int rewardOffset;
+	private final int doneOffset;
+	private final ByteBuffer records;
+	/**
+	 * 编解码所用的临时缓冲区
+	 */
+	private final float[] cells;
+	/**
+	 * 行为空间，所有样本相同，取自第一个存入的样本
+	 */
+	private ActionSpace actionSpace;
+	private int size;
+	/**
+	 * 下一个样本写入的位置
+	 */
+	private int next;
+	/**
+	 * 最近一次取样所构建的张量
+	 */
+	private NDManager batchManager;
+
+	/**
+	 * @param manager   取样时构建张量所用的管理器
+	 * @param random    随机数生成器
+	 * @param batchSize 每次取样的样本数，不小于已存样本数时按存入顺序返回全部样本
+	 * @param capacity  最多保存的样本数
+	 * @param slotShape 单个环境状态的形状，[通道, 行, 列]
+	 */
+	public CompactReplayBuffer(NDManager manager, Random random, int batchSize, int capacity, Shape slotShape) {
+		Validate.isTrue(batchSize > 0 && capacity > 0, "样本数必须为正！！batchSize:%d, capacity:%d", batchSize, capacity);
+		this.manager = manager;
+		this.random = random;
+		this.batchSize = batchSize;
+		this.capacity = capacity;
+		this.slotShape = slotShape;
+		this.slotSize = (int) slotShape.size();
+		this.wordsPerObservation = (this.slotSize + CELLS_PER_WORD - 1) / CELLS_PER_WORD;
+		this.postOffset = this.wordsPerObservation * Long.BYTES;
+		this.actionOffset = this.postOffset * 2;
+		this.rewardOffset = this.actionOffset + Integer.BYTES;
+		this.doneOffset = this.rewardOffset + Float.BYTES;
+		// 按long对齐
+		this.recordBytes = (this.doneOffset + Integer.BYTES + Long.BYTES - 1) / Long.BYTES * Long.BYTES;
+		this.records = ByteBuffer.allocateDirect(capacity * this.recordBytes).order(ByteOrder.nativeOrder());
+		this.cells = new float[this.slotSize];
+	}
+
+	@Override
+	public void addStep(RlEnv.Step step) {
+		int base = this.next * this.recordBytes;
+		encode(step.getPreObservation(), base);
+		encode(step.getPostObservation(), base + this.postOffset);
+		this.records.putInt(base + this.actionOffset, step.getAction().singletonOrThrow().getInt());
+		this.records.putFloat(base + this.rewardOffset, step.getReward().getFloat());
+		this.records.putInt(base + this.doneOffset, step.isDone() ? 1 : 0);
+		if (this.actionSpace == null) {
+			this.actionSpace = step.getPostActionSpace();
+		}
+		this.next = (this.next + 1) % this.capacity;
+		this.size = Math.min(this.size + 1, this.capacity);
+	}
+
+	/**
+	 * 构建一批样本的张量，上一批样本随即失效
+	 *
+	 * @return 样本，关闭单个样本不释放任何资源
+	 */
+	@Override
+	public RlEnv.Step[] getBatch() {
+		int count = Math.min(this.batchSize, this.size);
+		int[] indices = new int[count];
+		for (int i = 0; i < count; i++) {
+			// 样本不足一批时按存入顺序全部返回，否则有放回地随机选择
+			indices[i] = count == this.size ? (this.next - this.size + i + this.capacity) % this.capacity : this.random.nextInt(this.size);
+		}
+		releaseBatch();
+		this.batchManager = this.manager.newSubManager();
+		Shape batchShape = new Shape(count, this.slotShape.get(0), this.slotShape.get(1), this.slotShape.get(2));
+		FloatBuffer preBuffer = ByteBuffer.allocateDirect(count * this.slotSize * Float.BYTES).order(ByteOrder.nativeOrder()).asFloatBuffer();
+		FloatBuffer postBuffer = ByteBuffer.allocateDirect(count * this.slotSize * Float.BYTES).order(ByteOrder.nativeOrder()).asFloatBuffer();
+		int[] actions = new int[count];
+		for (int i = 0; i < count; i++) {
+			int base = indices[i] * this.recordBytes;
+			decode(base, preBuffer);
+			decode(base + this.postOffset, postBuffer);
+			actions[i] = this.records.getInt(base + this.actionOffset);
+		}
+		preBuffer.flip();
+		postBuffer.flip();
+		NDArray preObservations = this.batchManager.create(preBuffer, batchShape, DataType.FLOAT32);
+		NDArray postObservations = this.batchManager.create(postBuffer, batchShape, DataType.FLOAT32);
+
+		RlEnv.Step[] steps = new RlEnv.Step[count];
+		for (int i = 0; i < count; i++) {
+			int base = indices[i] * this.recordBytes;
+			steps[i] = new BatchStep(this.batchManager,
+					new NDList(preObservations.get(i)),
+					new NDList(this.batchManager.create(actions[i])),
+					new NDList(postObservations.get(i)),
+					this.actionSpace,
+					this.records.getFloat(base + this.rewardOffset),
+					this.records.getInt(base + this.doneOffset) != 0);
+		}
+		return steps;
+	}
+
+	/**
+	 * 释放最近一次取样所构建的张量，容器中的样本不受影响
+	 */
+	public void releaseBatch() {
+		if (this.batchManager != null) {
+			this.batchManager.close();
+			this.batchManager = null;
+		}
+	}
+
+	@Override
+	public void close() {
+		releaseBatch();
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return 单个样本在堆外内存中所占的字节数
+	 */
+	public int getRecordBytes() {
+		return recordBytes;
+	}
+
+	private void encode(NDList observation, int offset) {
+		FloatBuffer data = observation.singletonOrThrow().toByteBuffer().asFloatBuffer();
+		Validate.isTrue(data.remaining() == this.slotSize, "环境状态大小不符！！expected:%d, actual:%d", this.slotSize, data.remaining());
+		data.get(this.cells);
+		for (int w = 0; w < this.wordsPerObservation; w++) {
+			long word = 0;
+			int start = w * CELLS_PER_WORD;
+			int end = Math.min(start + CELLS_PER_WORD, this.slotSize);
+			for (int i = start; i < end; i++) {
+				word |= encodeCell(this.cells[i]) << ((i - start) * BITS_PER_CELL);
+			}
+			this.records.putLong(offset + w * Long.BYTES, word);
+		}
+	}
+
+	private void decode(int offset, FloatBuffer out) {
+		for (int w = 0; w < this.wordsPerObservation; w++) {
+			long word = this.records.getLong(offset + w * Long.BYTES);
+			int start = w * CELLS_PER_WORD;
+			int end = Math.min(start + CELLS_PER_WORD, this.slotSize);
+			for (int i = start; i < end; i++) {
+				out.put(decodeCell((word >>> ((i - start) * BITS_PER_CELL)) & CELL_MASK));
+			}
+		}
+	}
+
+	private static long encodeCell(float value) {
+		if (value == 0) {
+			return CODE_ZERO;
+		} else if (value == 1) {
+			return CODE_ONE;
+		} else if (value == -1) {
+			return CODE_MINUS_ONE;
+		}
+		throw new IllegalArgumentException("紧凑样本容器只支持取值为0、1、-1的环境状态！！value:" + value);
+	}
+
+	private static float decodeCell(long code) {
+		if (code == CODE_ONE) {
+			return 1;
+		} else if (code == CODE_MINUS_ONE) {
+			return -1;
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,148 @@
+package mo.boardgame.game;
+
+import ai.djl.ndarray.NDArray;
+import ai.djl.ndarray.NDList;
+
+import java.util.Random;
+
+/**
+ * 正方形棋盘的8种对称变换（二面体群D4）：4种旋转，以及它们与翻转的组合。
+ * 每种变换都表示为“先按需转置，再按需上下翻转，最后按需左右翻转”，
+ * 环境状态平面与动作索引使用同一套规则映射，保证变换后的样本依然一致。
+ *
+ * @author Caojunqi
+ * @date 2022-01-17 10:20
+ */
+public enum DihedralTransform {
+	/**
+	 * 不变
+	 */
+	IDENTITY(false, false, false),
+	/**
+	 * 逆时针旋转90度
+	 */
+	ROTATE_90(true, true, false),
+	/**
+	 * 旋转180度
+	 */
+	ROTATE_180(false, true, true),
+	/**
+	 * 逆时针旋转270度
+	 */
+	ROTATE_270(true, false, true),
+	/**
+	 * 上下翻转
+	 */
+	FLIP_ROWS(false, true, false),
+	/**
+	 * 左右翻转
+	 */
+	FLIP_COLS(false, false, true),
+	/**
+	 * 沿主对角线翻转
+	 */
+	TRANSPOSE(true, false, false),
+	/**
+	 * 沿副对角线翻转
+	 */
+	ANTI_TRANSPOSE(true, true, true),
+	;
+
+	private static final DihedralTransform[] VALUES = values();
+
+	/**
+	 * 是否交换行列
+	 */
+	private final boolean transpose;
+	/**
+	 * 是否上下翻转
+	 */
+	private final boolean flipRows;
+	/**
+	 * 是否左右翻转
+	 */
+	private final boolean flipCols;
+
+	DihedralTransform(boolean transpose, boolean flipRows, boolean flipCols) {
+		this.transpose = transpose;
+		this.flipRows = flipRows;
+		this.flipCols = flipCols;
+	}
+
+	/**
+	 * 映射棋盘位置索引（即动作索引）
+	 *
+	 * @param square     原棋盘位置索引，square = h * gridLength + w
+	 * @param gridLength 棋盘长宽
+	 * @return 变换后的棋盘位置索引
+	 */
+	public int mapSquare(int square, int gridLength) {
+		int h = square / gridLength;
+		int w = square % gridLength;
+		if (this.transpose) {
+			int tmp = h;
+			h = w;
+			w = tmp;
+		}
+		if (this.flipRows) {
+			h = gridLength - 1 - h;
+		}
+		if (this.flipCols) {
+			w = gridLength - 1 - w;
+		}
+		return h * gridLength + w;
+	}
+
+	/**
+	 * 变换环境状态，最后两维必须为[行, 列]，其余维度（通道、批次）保持不变
+	 *
+	 * @param observation 环境状态
+	 * @return 变换后的新NDArray，与原NDArray同属一个管理器
+	 */
+	public NDArray apply(NDArray observation) {
+		int rowAxis = observation.getShape().dimension() - 2;
+		int colAxis = rowAxis + 1;
+		NDArray result = observation;
+		if (this.transpose) {
+			int[] axes = new int[colAxis + 1];
+			for (int i = 0; i < axes.length; i++) {
+				axes[i] = i;
+			}
+			axes[rowAxis] = colAxis;
+			axes[colAxis] = rowAxis;
+			result = result.transpose(axes);
+		}
+		if (this.flipRows) {
+			result = result.flip(rowAxis);
+		}
+		if (this.flipCols) {
+			result = result.flip(colAxis);
+		}
+		return result == observation ? observation.duplicate() : result;
+	}
+
+	/**
+	 * 变换环境状态列表中的每一个NDArray
+	 */
+	public NDList apply(NDList observation) {
+		NDList result = new NDList(observation.size());
+		for (NDArray array : observation) {
+			result.add(apply(array));
+		}
+		return result;
+	}
+
+	/**
+	 * @return 随机选择一种变换（含{@link #IDENTITY}）
+	 */
+	public static DihedralTransform random(Random random) {
+		return VALUES[random.nextInt(VALUES.length)];
+	}
+
+	/**
+	 * @return 所有变换，第一个为{@link #IDENTITY}
+	 */
+	public static DihedralTransform[] all() {
+		return VALUES;
+	}
+}
@@ -0,0 +1,244 @@
+package mo.boardgame.game;
+
+import org.apache.commons.lang3.Validate;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 神经网络估值缓存：以(模型代次, 估值缓存键)为键，缓存策略网络输出的对数概率和价值网络输出的价值。
+ * 自我对弈、评估、机器人混战和人机对战中，开局等相同局面会被反复送入同一个模型，命中缓存时不必再做前向计算。
+ * <p>
+ * 缓存条目数固定，满后按时钟算法（second chance）淘汰：命中时标记条目，时钟指针扫过已标记的条目时只清除标记，
+ * 扫到未标记的条目时将其淘汰。
+ * <p>
+ * 每个模型实例在首次通过{@link #view(String, Object)}登记时获得一个代次，同名模型换成新的实例时改用新的代次，
+ * 旧代次的条目不再命中，随后被时钟算法自然淘汰。
+ * 只有参数固定的模型实例才能登记：训练中的模型参数原地更新，不经过缓存；训练后保存的新模型总是作为新的实例加载，
+ * 因此无需主动作废缓存。
+ *
+ * @author Caojunqi
+ * @date 2022-01-20 15:40
+ */
+public final class EvaluationCache {
+	/**
+	 * 默认缓存条目数
+	 */
+	public static final int DEFAULT_CAPACITY = 1 << 14;
+
+	private final int capacity;
+	/**
+	 * 各条目的模型代次
+	 */
+	private final int[] generations;
+	/**
+	 * 各条目的估值缓存键
+	 */
+	private final long[] keys;
+	private final Evaluation[] evaluations;
+	/**
+	 * 时钟算法的访问标记
+	 */
+	private final boolean[] referenced;
+	/**
+	 * 混合键 -> 条目索引
+	 */
+	private final Map<Long, Integer> index;
+	/**
+	 * 各模型名称当前登记的模型实例
+	 */
+	private final Map<String, ModelRecord> models = new HashMap<>();
+	private final AtomicInteger generationSequence = new AtomicInteger();
+	private int size;
+	/**
+	 * 时钟指针
+	 */
+	private int hand;
+
+	private long hitCount;
+	private long missCount;
+	private long evictionCount;
+
+	public EvaluationCache(int capacity) {
+		Validate.isTrue(capacity > 0, "估值缓存容量必须为正！！capacity:%d", capacity);
+		this.capacity = capacity;
+		this.generations = new int[capacity];
+		this.keys = new long[capacity];
+		this.evaluations = new Evaluation[capacity];
+		this.referenced = new boolean[capacity];
+		this.index = new HashMap<>(capacity * 2);
+	}
+
+	/**
+	 * 获取某个模型实例的缓存视图
+	 *
+	 * @param modelName 模型名称
+	 * @param model     模型实例，与已登记的实例不同时使用新的代次
+	 * @return 缓存视图
+	 */
+	public synchronized View view(String modelName, Object model) {
+		ModelRecord record = this.models.get(modelName);
+		if (record == null || record.model != model) {
+			record = new ModelRecord(model, this.generationSequence.incrementAndGet());
+			this.models.put(modelName, record);
+		}
+		return new View(record);
+	}
+
+	private synchronized Evaluation get(int generation, long key) {
+		Integer slot = this.index.get(mixKey(generation, key));
+		if (slot == null || this.generations[slot] != generation || this.keys[slot] != key) {
+			this.missCount++;
+			return null;
+		}
+		this.referenced[slot] = true;
+		this.hitCount++;
+		return this.evaluations[slot];
+	}
+
+	private synchronized void put(int generation, long key, Evaluation evaluation) {
+		long mixedKey = mixKey(generation, key);
+		Integer slot = this.index.get(mixedKey);
+		if (slot == null) {
+			slot = nextSlot();
+			this.index.put(mixedKey, slot);
+		}
+		this.generations[slot] = generation;
+		this.keys[slot] = key;
+		this.evaluations[slot] = evaluation;
+		this.referenced[slot] = false;
+	}
+
+	/**
+	 * @return 空闲条目，没有时按时钟算法淘汰一个条目
+	 */
+	private int nextSlot() {
+		if (this.size < this.capacity) {
+			return this.size++;
+		}
+		while (this.referenced[this.hand]) {
+			this.referenced[this.hand] = false;
+			this.hand = (this.hand + 1) % this.capacity;
+		}
+		int slot = this.hand;
+		this.hand = (this.hand + 1) % this.capacity;
+		this.index.remove(mixKey(this.generations[slot], this.keys[slot]));
+		this.evictionCount++;
+		return slot;
+	}
+
+	private static long mixKey(int generation, long key) {
+		return key ^ generation * MathUtils.GOLDEN_RATIO_64;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public synchronized int getSize() {
+		return size;
+	}
+
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+	public synchronized long getEvictionCount() {
+		return evictionCount;
+	}
+
+	/**
+	 * @return 命中率，尚未查询时为0
+	 */
+	public synchronized float getHitRate() {
+		long total = this.hitCount + this.missCount;
+		return total == 0 ? 0 : (float) this.hitCount / total;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "EvaluationCache{size=" + this.size + "/" + this.capacity +
+				", hit=" + this.hitCount +
+				", miss=" + this.missCount +
+				", evict=" + this.evictionCount +
+				", hitRate=" + getHitRate() +
+				"}";
+	}
+
+	/**
+	 * 模型实例及其当前代次
+	 */
+	private static final class ModelRecord {
+		private final Object model;
+		private final int generation;
+
+		private ModelRecord(Object model, int generation) {
+			this.model = model;
+			this.generation = generation;
+		}
+	}
+
+	/**
+	 * 一个模型实例的缓存视图，只读写该实例代次的条目
+	 */
+	public final class View {
+		private final ModelRecord record;
+
+		private View(ModelRecord record) {
+			this.record = record;
+		}
+
+		/**
+		 * @param key 估值缓存键，见{@link BaseBoardGameEnv#getEvaluationKey()}
+		 * @return 缓存的估值，未命中时返回null
+		 */
+		public Evaluation get(long key) {
+			return EvaluationCache.this.get(this.record.generation, key);
+		}
+
+		/**
+		 * @param key       估值缓存键
+		 * @param logPolicy 存放各落子对数概率的数组，从offset起取行为空间大小个元素，会被拷贝
+		 * @param offset    起始位置
+		 * @param actionNum 行为空间大小
+		 * @param value     价值
+		 */
+		public void put(long key, float[] logPolicy, int offset, int actionNum, float value) {
+			float[] copy = new float[actionNum];
+			System.arraycopy(logPolicy, offset, copy, 0, actionNum);
+			EvaluationCache.this.put(this.record.generation, key, new Evaluation(copy, value));
+		}
+	}
+
+	/**
+	 * 一次网络估值的结果，创建后不再修改
+	 */
+	public static final class Evaluation {
+		private final float[] logPolicy;
+		private final float value;
+
+		private Evaluation(float[] logPolicy, float value) {
+			this.logPolicy = logPolicy;
+			this.value = value;
+		}
+
+		/**
+		 * @return 各落子的对数概率，调用方不可修改
+		 */
+		public float[] getLogPolicy() {
+			return logPolicy;
+		}
+
+		/**
+		 * @return 站在行动玩家视角的价值
+		 */
+		public float getValue() {
+			return value;
+		}
+	}
+}
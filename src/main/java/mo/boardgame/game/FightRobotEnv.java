@@ -5,13 +5,8 @@ import ai.djl.modality.rl.agent.RlAgent;
 import ai.djl.modality.rl.env.RlEnv;
 import ai.djl.ndarray.NDList;
 import ai.djl.ndarray.NDManager;
-import ai.djl.training.DefaultTrainingConfig;
-import ai.djl.training.Trainer;
-import ai.djl.training.TrainingConfig;
-import ai.djl.training.loss.Loss;
-import algorithm.ppo2.PPO;
 import mo.boardgame.common.ConstantParameter;
-import org.apache.commons.io.FileUtils;
+import mo.boardgame.game.mcts.MctsAgent;
 
 import java.io.File;
 import java.util.*;
@@ -40,6 +35,10 @@ public class FightRobotEnv<GAME extends BaseBoardGameEnv> {
 	 * 玩家索引
 	 */
 	private int playerId;
+	/**
+	 * 对手智能体类型
+	 */
+	private AgentType agentType;
 	/**
 	 * 对手智能体，索引为{@link this#playerId}的项为null
 	 */
@@ -48,15 +47,24 @@ public class FightRobotEnv<GAME extends BaseBoardGameEnv> {
 	 * 对战是否开始
 	 */
 	private boolean start;
+	/**
+	 * 搜索型机器人是否在玩家思考期间后台思考
+	 */
+	private boolean ponder = true;
+	/**
+	 * 机器人的估值缓存，多局对战之间共享，开局局面无需重复估值
+	 */
+	private EvaluationCache evaluationCache = new EvaluationCache(EvaluationCache.DEFAULT_CAPACITY);
 
-	public FightRobotEnv(NDManager manager, Random random, GAME gameEnv) {
-		this(manager, random, gameEnv, random.nextInt(gameEnv.getPlayerNum()));
+	public FightRobotEnv(NDManager manager, Random random, GAME gameEnv, AgentType agentType) {
+		this(manager, random, gameEnv, agentType, random.nextInt(gameEnv.getPlayerNum()));
 	}
 
-	public FightRobotEnv(NDManager manager, Random random, GAME gameEnv, int playerId) {
+	public FightRobotEnv(NDManager manager, Random random, GAME gameEnv, AgentType agentType, int playerId) {
 		this.manager = manager;
 		this.random = random;
 		this.gameEnv = gameEnv;
+		this.agentType = agentType;
 		this.playerId = playerId;
 
 		setupOpponents();
@@ -80,6 +88,7 @@ public class FightRobotEnv<GAME extends BaseBoardGameEnv> {
 			this.gameEnv.step(robotAction, false);
 			curPlayerId = this.gameEnv.getCurPlayerId();
 		}
+		ponderRobots();
 	}
 
 	/**
@@ -98,6 +107,7 @@ public class FightRobotEnv<GAME extends BaseBoardGameEnv> {
 		RlEnv.Step step = this.gameEnv.step(action, false);
 		if (step.isDone()) {
 			this.start = false;
+			stopPondering();
 			return;
 		}
 		curPlayerId = this.gameEnv.getCurPlayerId();
@@ -110,6 +120,30 @@ public class FightRobotEnv<GAME extends BaseBoardGameEnv> {
 		}
 		if (step.isDone()) {
 			this.start = false;
+		} else {
+			ponderRobots();
+		}
+	}
+
+	/**
+	 * 玩家思考期间，让搜索型机器人在后台继续搜索，玩家落子后复用搜索结果
+	 */
+	private void ponderRobots() {
+		if (!this.ponder) {
+			return;
+		}
+		for (RlAgent agent : this.agents) {
+			if (agent instanceof MctsAgent) {
+				((MctsAgent) agent).ponder(this.gameEnv);
+			}
+		}
+	}
+
+	private void stopPondering() {
+		for (RlAgent agent : this.agents) {
+			if (agent instanceof MctsAgent) {
+				((MctsAgent) agent).stopPondering();
+			}
 		}
 	}
 
@@ -119,16 +153,14 @@ public class FightRobotEnv<GAME extends BaseBoardGameEnv> {
 	private void setupOpponents() {
 		this.agents = new RlAgent[this.gameEnv.getPlayerNum()];
 		Model opponentModel = loadOpponentModel();
+		InferenceAgent.initializeIfNeeded(opponentModel, gameEnv.getObservationShape());
 		for (int i = 0; i < this.gameEnv.getPlayerNum(); i++) {
 			if (i == playerId) {
 				continue;
 			}
-			TrainingConfig config = new DefaultTrainingConfig(Loss.l2Loss());
-			Trainer trainer = opponentModel.newTrainer(config);
-			trainer.initialize(gameEnv.getObservationShape());
-			trainer.notifyListeners(listener -> listener.onTrainingBegin(trainer));
-			PPO agent = new PPO(manager.newSubManager(), random, trainer);
-			this.agents[i] = agent;
+			EvaluationCache.View cacheView = this.evaluationCache.view(ConstantParameter.BEST_MODEL_PREFIX, opponentModel);
+			this.agents[i] = this.agentType.buildAgent(manager.newSubManager(), random, opponentModel,
+					gameEnv.getObservationSlotShape(), cacheView);
 		}
 	}
 
@@ -136,18 +168,16 @@ public class FightRobotEnv<GAME extends BaseBoardGameEnv> {
 	 * 加载训练好的模型
 	 */
 	private Model loadOpponentModel() {
-		File modelDir = new File(ConstantParameter.MODEL_DIR + this.gameEnv.getName() + ConstantParameter.DIR_SEPARATOR);
-		Collection<File> modelFiles = FileUtils.listFiles(modelDir, null, true);
-		if (modelFiles.isEmpty()) {
+		String bestModelName = CheckpointIndex.of(this.gameEnv.getName()).getBest();
+		if (bestModelName == null) {
 			return gameEnv.buildBaseModel();
 		}
-		List<File> sortedFiles = new ArrayList<>(modelFiles);
-		sortedFiles.sort(Comparator.comparing(File::getName));
-		File bestModelFile = sortedFiles.get(sortedFiles.size() - 1);
 		try {
 			File bestModelFileDir = new File(ConstantParameter.MODEL_DIR + this.gameEnv.getName() + ConstantParameter.DIR_SEPARATOR);
 			Model bestModel = gameEnv.buildBaseModel();
-			bestModel.load(bestModelFileDir.toPath(), ConstantParameter.BEST_MODEL_PREFIX, null);
+			Map<String, String> options = new HashMap<>(1);
+			options.put("epoch", CheckpointIndex.parseEpoch(bestModelName));
+			bestModel.load(bestModelFileDir.toPath(), ConstantParameter.BEST_MODEL_PREFIX, options);
 			return bestModel;
 		} catch (Exception e) {
 			throw new RuntimeException(e);
@@ -158,4 +188,11 @@ public class FightRobotEnv<GAME extends BaseBoardGameEnv> {
 		return this.gameEnv;
 	}
 
+	public void setPonder(boolean ponder) {
+		this.ponder = ponder;
+		if (!ponder) {
+			stopPondering();
+		}
+	}
+
 }
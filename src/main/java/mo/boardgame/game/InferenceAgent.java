@@ -0,0 +1,140 @@
+package mo.boardgame.game;
+
+import ai.djl.Model;
+import ai.djl.inference.Predictor;
+import ai.djl.modality.rl.env.RlEnv;
+import ai.djl.ndarray.NDList;
+import ai.djl.ndarray.NDManager;
+import ai.djl.ndarray.types.DataType;
+import ai.djl.ndarray.types.Shape;
+import ai.djl.nn.Block;
+import ai.djl.translate.TranslateException;
+import algorithm.RlAgentCloseable;
+import org.apache.commons.lang3.Validate;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+/**
+ * 只做推理的智能体：通过{@link Predictor}直接调用已加载的模型，不构建Trainer，
+ * 因而没有梯度记录、优化器状态和训练监听器，适合作为参数固定的对手。
+ * 训练模式下按策略网络输出的概率采样落子，否则选择概率最大的落子。
+ *
+ * @author Caojunqi
+ * @date 2022-01-21 10:40
+ */
+public class InferenceAgent implements RlAgentCloseable {
+
+	private NDManager manager;
+	private Random random;
+	private Predictor<FloatBuffer, PolicyValueTranslator.Output> predictor;
+	/**
+	 * 估值缓存，为null时不缓存
+	 */
+	private EvaluationCache.View evaluationCache;
+	/**
+	 * 预分配的网络输入缓冲区，首次落子时按环境状态的大小分配
+	 */
+	private FloatBuffer inputBuffer;
+	/**
+	 * 预分配的落子概率
+	 */
+	private float[] weights;
+
+	public InferenceAgent(NDManager manager, Random random, Model model, Shape slotShape, EvaluationCache.View evaluationCache) {
+		this.manager = manager;
+		this.random = random;
+		this.predictor = model.newPredictor(new PolicyValueTranslator(slotShape));
+		this.evaluationCache = evaluationCache;
+		this.inputBuffer = ByteBuffer.allocateDirect((int) slotShape.size() * Float.BYTES)
+				.order(ByteOrder.nativeOrder())
+				.asFloatBuffer();
+	}
+
+	@Override
+	public NDList chooseAction(RlEnv env, boolean training) {
+		Validate.isInstanceOf(BaseBoardGameEnv.class, env, "推理智能体只支持棋类游戏环境！！");
+		BaseBoardGameEnv gameEnv = (BaseBoardGameEnv) env;
+		float[] logPolicy = evaluate(gameEnv);
+		int actionNum = gameEnv.getActionNum();
+		if (this.weights == null || this.weights.length != actionNum) {
+			this.weights = new float[actionNum];
+		}
+		// 从第一个合法落子开始比较，合法落子的概率全部下溢为0时也不会选中非法落子
+		int move = -1;
+		for (int i = 0; i < actionNum; i++) {
+			boolean legal = gameEnv.isLegal(i);
+			this.weights[i] = legal ? (float) Math.exp(logPolicy[i]) : 0;
+			if (legal && (move < 0 || this.weights[i] > this.weights[move])) {
+				move = i;
+			}
+		}
+		Validate.validState(move >= 0, "没有合法落子！！");
+		if (this.weights[move] == 0) {
+			// 合法落子的概率全部下溢为0，在合法落子中等概率选择
+			for (int i = 0; i < actionNum; i++) {
+				this.weights[i] = gameEnv.isLegal(i) ? 1 : 0;
+			}
+		}
+		if (training) {
+			move = MathUtils.sampleIndex(this.random, this.weights);
+		}
+		return new NDList(this.manager.create(move));
+	}
+
+	/**
+	 * 推理智能体的模型参数固定，不参与训练，此方法什么也不做
+	 */
+	@Override
+	public void trainBatch(RlEnv.Step[] batchSteps) {
+		// 参数固定，不训练
+	}
+
+	@Override
+	public void close() {
+		this.predictor.close();
+		this.manager.close();
+	}
+
+	/**
+	 * @return 当前局面各落子的对数概率，优先从估值缓存中获取
+	 */
+	private float[] evaluate(BaseBoardGameEnv gameEnv) {
+		long key = gameEnv.getEvaluationKey();
+		if (this.evaluationCache != null) {
+			EvaluationCache.Evaluation evaluation = this.evaluationCache.get(key);
+			if (evaluation != null) {
+				return evaluation.getLogPolicy();
+			}
+		}
+		FloatBuffer buffer = this.inputBuffer;
+		buffer.clear();
+		gameEnv.writeObservation(buffer);
+		buffer.flip();
+		PolicyValueTranslator.Output output;
+		try {
+			output = this.predictor.predict(buffer);
+		} catch (TranslateException e) {
+			throw new IllegalStateException("模型推理失败！！", e);
+		}
+		if (this.evaluationCache != null) {
+			this.evaluationCache.put(key, output.getLogPolicy(), 0, gameEnv.getActionNum(), output.getValues()[0]);
+		}
+		return output.getLogPolicy();
+	}
+
+	/**
+	 * 新构建的模型尚无参数，推理前按输入形状初始化；已加载参数的模型不受影响
+	 *
+	 * @param model      模型
+	 * @param inputShape 初始化所用的输入形状
+	 */
+	public static void initializeIfNeeded(Model model, Shape inputShape) {
+		Block block = model.getBlock();
+		if (!block.isInitialized()) {
+			block.initialize(model.getNDManager(), DataType.FLOAT32, inputShape);
+		}
+	}
+}
@@ -11,27 +11,82 @@ import java.util.Random;
 public final class MathUtils {
 
 	/**
-	 * 按照排名，概率性地随机选择
+	 * 64位黄金分割数，把小整数混入64位键时用作乘数，使相邻的整数散列到相距很远的键
+	 */
+	public static final long GOLDEN_RATIO_64 = 0x9E3779B97F4A7C15L;
+
+	/**
+	 * 按权重概率性地随机选择，权重无需归一化，总权重不为正时等概率选择
 	 *
-	 * @param random    随机数生成器
-	 * @param totalSize 候选项总数
+	 * @param random  随机数生成器
+	 * @param weights 各候选项的非负权重
 	 * @return 被选中的索引
 	 */
-	public static int rankRandomIndex(Random random, int totalSize) {
-		int totalWeight = 0;
-		int[] weights = new int[totalSize];
-		for (int i = 0; i < totalSize; i++) {
-			totalWeight += i + 1;
-			weights[i] = i + 1;
-		}
-		int r = random.nextInt(totalWeight) + 1;
-		int curCount = 0;
-		for (int j = 0; j < totalSize; j++) {
-			curCount += weights[j];
-			if (r <= curCount) {
-				return j;
+	public static int sampleIndex(Random random, float[] weights) {
+		double totalWeight = 0;
+		for (float weight : weights) {
+			totalWeight += weight;
+		}
+		if (totalWeight <= 0) {
+			return random.nextInt(weights.length);
+		}
+		double r = random.nextDouble() * totalWeight;
+		double curWeight = 0;
+		for (int i = 0; i < weights.length; i++) {
+			curWeight += weights[i];
+			if (r < curWeight) {
+				return i;
+			}
+		}
+		// 浮点误差兜底，返回最后一个权重为正的候选项
+		for (int i = weights.length - 1; i >= 0; i--) {
+			if (weights[i] > 0) {
+				return i;
+			}
+		}
+		throw new IllegalStateException("sampleIndex 计算错误！！ totalWeight:" + totalWeight);
+	}
+
+	/**
+	 * 按对称狄利克雷分布Dir(alpha)采样，结果写入out
+	 *
+	 * @param random 随机数生成器
+	 * @param alpha  浓度参数
+	 * @param out    采样结果，长度即分布维度
+	 */
+	public static void sampleDirichlet(Random random, double alpha, float[] out) {
+		double sum = 0;
+		for (int i = 0; i < out.length; i++) {
+			double x = sampleGamma(random, alpha);
+			out[i] = (float) x;
+			sum += x;
+		}
+		for (int i = 0; i < out.length; i++) {
+			out[i] = sum > 0 ? (float) (out[i] / sum) : 1f / out.length;
+		}
+	}
+
+	/**
+	 * 按Gamma(alpha, 1)分布采样，Marsaglia-Tsang方法
+	 */
+	private static double sampleGamma(Random random, double alpha) {
+		if (alpha < 1) {
+			// Gamma(alpha) = Gamma(alpha + 1) * U^(1 / alpha)
+			return sampleGamma(random, alpha + 1) * Math.pow(random.nextDouble(), 1 / alpha);
+		}
+		double d = alpha - 1.0 / 3;
+		double c = 1 / Math.sqrt(9 * d);
+		while (true) {
+			double x = random.nextGaussian();
+			double v = 1 + c * x;
+			if (v <= 0) {
+				continue;
+			}
+			v = v * v * v;
+			double u = random.nextDouble();
+			if (Math.log(u) < 0.5 * x * x + d - d * v + d * Math.log(v)) {
+				return d * v;
 			}
 		}
-		throw new IllegalStateException("rankRandomIndex 计算错误！！ totalSize:" + totalSize + "，r:" + r);
 	}
 }
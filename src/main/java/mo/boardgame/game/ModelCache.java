@@ -0,0 +1,190 @@
+package mo.boardgame.game;
+
+import ai.djl.Model;
+import ai.djl.nn.Parameter;
+import ai.djl.util.Pair;
+import mo.boardgame.common.ConstantParameter;
+import org.apache.commons.lang3.Validate;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * 已加载模型的缓存：按模型名称缓存从磁盘加载的对手模型，总参数字节数超出上限时按最近最少使用的顺序淘汰并释放模型。
+ * 模型通过{@link #acquire(BaseBoardGameEnv, String)}取得，使用完毕后调用{@link #release(String)}，使用中的模型不会被淘汰。
+ *
+ * @author Caojunqi
+ * @date 2022-01-21 17:30
+ */
+public final class ModelCache implements AutoCloseable {
+	/**
+	 * 默认的参数字节数上限
+	 */
+	public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+	/**
+	 * 参数字节数上限
+	 */
+	private final long maxBytes;
+	/**
+	 * 模型淘汰时的回调，参数为模型名称，在模型释放前调用
+	 */
+	private final Consumer<String> evictionListener;
+	/**
+	 * 模型名称 -> 缓存条目，按访问顺序排列，最近最少使用的在前
+	 */
+	private final LinkedHashMap<String, CacheEntry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private long totalBytes;
+
+	private long hitCount;
+	private long loadCount;
+	private long evictionCount;
+
+	public ModelCache(long maxBytes, Consumer<String> evictionListener) {
+		Validate.isTrue(maxBytes > 0, "模型缓存上限必须为正！！maxBytes:%d", maxBytes);
+		this.maxBytes = maxBytes;
+		this.evictionListener = evictionListener;
+	}
+
+	/**
+	 * 取得训练好的模型，未缓存时从模型目录加载，引用计数加一
+	 *
+	 * @param gameEnv   游戏
+	 * @param modelName 模型名称，形如best-0001
+	 * @return 模型，名称不规范时返回null
+	 */
+	public synchronized Model acquire(BaseBoardGameEnv gameEnv, String modelName) {
+		CacheEntry entry = this.entries.get(modelName);
+		if (entry != null) {
+			this.hitCount++;
+			entry.refCount++;
+			return entry.model;
+		}
+		String epoch = CheckpointIndex.parseEpoch(modelName);
+		if (epoch == null) {
+			return null;
+		}
+		Model model = gameEnv.buildBaseModel();
+		try {
+			File modelFileDir = new File(ConstantParameter.MODEL_DIR + gameEnv.getName() + ConstantParameter.DIR_SEPARATOR);
+			Map<String, String> options = new HashMap<>(1);
+			options.put("epoch", epoch);
+			model.load(modelFileDir.toPath(), ConstantParameter.BEST_MODEL_PREFIX, options);
+		} catch (Exception e) {
+			model.close();
+			throw new RuntimeException(e);
+		}
+		entry = new CacheEntry(model, parameterBytes(model));
+		entry.refCount++;
+		this.entries.put(modelName, entry);
+		this.totalBytes += entry.bytes;
+		this.loadCount++;
+		evict();
+		return model;
+	}
+
+	/**
+	 * 释放一次对模型的引用，引用计数归零后模型可被淘汰
+	 *
+	 * @param modelName 模型名称
+	 */
+	public synchronized void release(String modelName) {
+		CacheEntry entry = this.entries.get(modelName);
+		if (entry == null || entry.refCount == 0) {
+			return;
+		}
+		entry.refCount--;
+		evict();
+	}
+
+	@Override
+	public synchronized void close() {
+		for (Map.Entry<String, CacheEntry> entry : this.entries.entrySet()) {
+			if (this.evictionListener != null) {
+				this.evictionListener.accept(entry.getKey());
+			}
+			entry.getValue().model.close();
+		}
+		this.entries.clear();
+		this.totalBytes = 0;
+	}
+
+	/**
+	 * 超出上限时，从最近最少使用的模型开始淘汰未被使用的模型
+	 */
+	private void evict() {
+		Iterator<Map.Entry<String, CacheEntry>> iterator = this.entries.entrySet().iterator();
+		while (this.totalBytes > this.maxBytes && iterator.hasNext()) {
+			Map.Entry<String, CacheEntry> entry = iterator.next();
+			CacheEntry cacheEntry = entry.getValue();
+			if (cacheEntry.refCount > 0) {
+				continue;
+			}
+			iterator.remove();
+			this.totalBytes -= cacheEntry.bytes;
+			this.evictionCount++;
+			if (this.evictionListener != null) {
+				this.evictionListener.accept(entry.getKey());
+			}
+			cacheEntry.model.close();
+		}
+	}
+
+	/**
+	 * @return 模型所有参数占用的字节数
+	 */
+	private static long parameterBytes(Model model) {
+		long bytes = 0;
+		for (Pair<String, Parameter> pair : model.getBlock().getParameters()) {
+			Parameter parameter = pair.getValue();
+			if (parameter.isInitialized()) {
+				bytes += parameter.getArray().size() * parameter.getArray().getDataType().getNumOfBytes();
+			}
+		}
+		return bytes;
+	}
+
+	public synchronized long getTotalBytes() {
+		return totalBytes;
+	}
+
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	public synchronized long getLoadCount() {
+		return loadCount;
+	}
+
+	public synchronized long getEvictionCount() {
+		return evictionCount;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "ModelCache{models=" + this.entries.size() +
+				", bytes=" + this.totalBytes + "/" + this.maxBytes +
+				", hit=" + this.hitCount +
+				", load=" + this.loadCount +
+				", evict=" + this.evictionCount +
+				"}";
+	}
+
+	private static final class CacheEntry {
+		private final Model model;
+		private final long bytes;
+		/**
+		 * 正在使用该模型的数量
+		 */
+		private int refCount;
+
+		private CacheEntry(Model model, long bytes) {
+			this.model = model;
+			this.bytes = bytes;
+		}
+	}
+}
@@ -1,12 +1,17 @@
 package mo.boardgame.game;
 
+import ai.djl.Model;
 import ai.djl.training.Trainer;
 import ai.djl.training.listener.TrainingListenerAdapter;
 import mo.boardgame.common.ConstantParameter;
+import org.apache.commons.io.FilenameUtils;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 
 /**
  * 模型数据处理监听器
@@ -62,13 +67,56 @@ public class ModelTrainingListener extends TrainingListenerAdapter {
 			return;
 		}
 		try {
-			trainer.getModel().save(buildBestModelPath(), ConstantParameter.BEST_MODEL_PREFIX);
+			saveBestModel(trainer);
 			System.out.println("新的模型出现！！evalReward: " + meanEvalReward);
 		} catch (IOException e) {
 			throw new IllegalStateException("Best Model Save Error!!" + e);
 		}
 	}
 
+	/**
+	 * 先把模型保存到临时子目录，写完后再原子地移入模型目录。
+	 * 模型文件以最终名称出现在模型目录中时已经完整，{@link CheckpointIndex}和其他线程不会读到写了一半的文件。
+	 * 注：DJL按目标目录中已有的文件推算epoch，临时子目录中没有历史模型，因此需按模型目录显式指定epoch，否则每次都会覆盖best-0001。
+	 */
+	private void saveBestModel(Trainer trainer) throws IOException {
+		Path modelDir = buildBestModelPath();
+		Path tmpDir = modelDir.resolve(ConstantParameter.MODEL_TMP_DIR);
+		Files.createDirectories(tmpDir);
+		// 清理上次保存中断时遗留的文件，以免被一并移入模型目录
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(tmpDir)) {
+			for (Path file : stream) {
+				Files.delete(file);
+			}
+		}
+		Model model = trainer.getModel();
+		model.setProperty("Epoch", String.valueOf(nextEpoch(modelDir)));
+		model.save(tmpDir, ConstantParameter.BEST_MODEL_PREFIX);
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(tmpDir)) {
+			for (Path file : stream) {
+				Files.move(file, modelDir.resolve(file.getFileName()), StandardCopyOption.ATOMIC_MOVE);
+			}
+		}
+	}
+
+	/**
+	 * 直接扫描模型目录，而不是读{@link CheckpointIndex}，因为索引由监听线程异步更新，可能尚未包含刚保存的模型
+	 *
+	 * @return 模型目录中最大的epoch加一，目录中没有模型时为1
+	 */
+	private static int nextEpoch(Path modelDir) throws IOException {
+		int maxEpoch = 0;
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(modelDir)) {
+			for (Path file : stream) {
+				String epoch = CheckpointIndex.parseEpoch(FilenameUtils.removeExtension(file.getFileName().toString()));
+				if (epoch != null) {
+					maxEpoch = Math.max(maxEpoch, Integer.parseInt(epoch));
+				}
+			}
+		}
+		return maxEpoch + 1;
+	}
+
 	private Path buildBestModelPath() {
 		String gameName = this.selfPlayEnv.getGameEnv().getName();
 		String fullDir = ConstantParameter.MODEL_DIR +
@@ -0,0 +1,212 @@
+package mo.boardgame.game;
+
+import ai.djl.modality.rl.ActionSpace;
+import ai.djl.modality.rl.ReplayBuffer;
+import ai.djl.modality.rl.env.RlEnv;
+import ai.djl.ndarray.NDArray;
+import ai.djl.ndarray.NDList;
+import ai.djl.ndarray.NDManager;
+import ai.djl.ndarray.types.DataType;
+import ai.djl.ndarray.types.Shape;
+import org.apache.commons.lang3.Validate;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+/**
+ * 只保存落子序列的样本容器：样本只记录所在那一局游戏的{@link MoveTrajectory}、前后两个环境状态的步数、
+ * 对称变换、行为索引、收益和终局标志，同一局游戏的样本共用一份落子序列，容器不持有任何NDArray。
+ * 取样时在一个私有的游戏实例上从开局重放落子，重建环境状态后再做对称变换，张量在批量管理器中构建，下次取样或关闭容器时释放。
+ * 只接受记录了落子序列的{@link SelfPlayEnv.SelfPlayEnvStep}。容器已满后循环覆盖最早的样本。
+ *
+ * @author Caojunqi
+ * @date 2022-01-25 11:00
+ */
+public final class MoveListReplayBuffer implements ReplayBuffer, AutoCloseable {
+
+	private final NDManager manager;
+	private final Random random;
+	private final int batchSize;
+	private final int capacity;
+	/**
+	 * 重放落子所用的游戏
+	 */
+	private final BaseBoardGameEnv replayEnv;
+	/**
+	 * 单个环境状态的形状，[通道, 行, 列]
+	 */
+	private final Shape slotShape;
+	private final int slotSize;
+	private final int numSquares;
+	/**
+	 * 各对称变换下的棋盘位置映射，按{@link DihedralTransform#ordinal()}索引
+	 */
+	private final int[][] squareMaps;
+	/**
+	 * 重放后写出环境状态所用的临时缓冲区
+	 */
+	private final float[] cells;
+	private final FloatBuffer cellBuffer;
+
+	private final MoveTrajectory[] trajectories;
+	private final int[] prePlies;
+	private final int[] postPlies;
+	private final byte[] transforms;
+	private final int[] actions;
+	private final float[] rewards;
+	private final boolean[] dones;
+	/**
+	 * 行为空间，所有样本相同，取自第一个存入的样本
+	 */
+	private ActionSpace actionSpace;
+	private int size;
+	/**
+	 * 下一个样本写入的位置
+	 */
+	private int next;
+	/**
+	 * 最近一次取样所构建的张量
+	 */
+	private NDManager batchManager;
+
+	/**
+	 * @param manager   取样时构建张量所用的管理器
+	 * @param random    随机数生成器
+	 * @param batchSize 每次取样的样本数，不小于已存样本数时按存入顺序返回全部样本
+	 * @param capacity  最多保存的样本数
+	 * @param gameEnv   游戏，重放所用的游戏实例由它复制而来
+	 */
+	public MoveListReplayBuffer(NDManager manager, Random random, int batchSize, int capacity, BaseBoardGameEnv gameEnv) {
+		Validate.isTrue(batchSize > 0 && capacity > 0, "样本数必须为正！！batchSize:%d, capacity:%d", batchSize, capacity);
+		this.manager = manager;
+		this.random = random;
+		this.batchSize = batchSize;
+		this.capacity = capacity;
+		this.replayEnv = gameEnv.fork(manager.newSubManager(), random);
+		this.slotShape = gameEnv.getObservationSlotShape();
+		this.slotSize = (int) this.slotShape.size();
+		int gridLength = (int) this.slotShape.get(1);
+		this.numSquares = gridLength * gridLength;
+		DihedralTransform[] all = DihedralTransform.all();
+		this.squareMaps = new int[all.length][this.numSquares];
+		for (DihedralTransform transform : all) {
+			for (int square = 0; square < this.numSquares; square++) {
+				this.squareMaps[transform.ordinal()][square] = transform.mapSquare(square, gridLength);
+			}
+		}
+		this.cells = new float[this.slotSize];
+		this.cellBuffer = FloatBuffer.wrap(this.cells);
+
+		this.trajectories = new MoveTrajectory[capacity];
+		this.prePlies = new int[capacity];
+		this.postPlies = new int[capacity];
+		this.transforms = new byte[capacity];
+		this.actions = new int[capacity];
+		this.rewards = new float[capacity];
+		this.dones = new boolean[capacity];
+	}
+
+	@Override
+	public void addStep(RlEnv.Step step) {
+		Validate.isTrue(step instanceof SelfPlayEnv.SelfPlayEnvStep && ((SelfPlayEnv.SelfPlayEnvStep) step).getTrajectory() != null,
+				"落子序列样本容器只接受记录了落子序列的样本！！step:%s", step.getClass().getName());
+		SelfPlayEnv.SelfPlayEnvStep selfPlayStep = (SelfPlayEnv.SelfPlayEnvStep) step;
+		int index = this.next;
+		this.trajectories[index] = selfPlayStep.getTrajectory();
+		this.prePlies[index] = selfPlayStep.getPrePly();
+		this.postPlies[index] = selfPlayStep.getPostPly();
+		this.transforms[index] = (byte) selfPlayStep.getTransform().ordinal();
+		this.actions[index] = step.getAction().singletonOrThrow().getInt();
+		this.rewards[index] = step.getReward().getFloat();
+		this.dones[index] = step.isDone();
+		if (this.actionSpace == null) {
+			this.actionSpace = step.getPostActionSpace();
+		}
+		this.next = (this.next + 1) % this.capacity;
+		this.size = Math.min(this.size + 1, this.capacity);
+	}
+
+	/**
+	 * 重放落子，构建一批样本的张量，上一批样本随即失效
+	 *
+	 * @return 样本，关闭单个样本不释放任何资源
+	 */
+	@Override
+	public RlEnv.Step[] getBatch() {
+		int count = Math.min(this.batchSize, this.size);
+		int[] indices = new int[count];
+		for (int i = 0; i < count; i++) {
+			// 样本不足一批时按存入顺序全部返回，否则有放回地随机选择
+			indices[i] = count == this.size ? (this.next - this.size + i + this.capacity) % this.capacity : this.random.nextInt(this.size);
+		}
+		releaseBatch();
+		this.batchManager = this.manager.newSubManager();
+		Shape batchShape = new Shape(count, this.slotShape.get(0), this.slotShape.get(1), this.slotShape.get(2));
+		FloatBuffer preBuffer = ByteBuffer.allocateDirect(count * this.slotSize * Float.BYTES).order(ByteOrder.nativeOrder()).asFloatBuffer();
+		FloatBuffer postBuffer = ByteBuffer.allocateDirect(count * this.slotSize * Float.BYTES).order(ByteOrder.nativeOrder()).asFloatBuffer();
+		for (int i = 0; i < count; i++) {
+			int index = indices[i];
+			MoveTrajectory trajectory = this.trajectories[index];
+			int[] squareMap = this.squareMaps[this.transforms[index]];
+			this.replayEnv.reset();
+			trajectory.replay(this.replayEnv, 0, this.prePlies[index]);
+			writeObservation(preBuffer, i * this.slotSize, squareMap);
+			trajectory.replay(this.replayEnv, this.prePlies[index], this.postPlies[index]);
+			writeObservation(postBuffer, i * this.slotSize, squareMap);
+		}
+		NDArray preObservations = this.batchManager.create(preBuffer, batchShape, DataType.FLOAT32);
+		NDArray postObservations = this.batchManager.create(postBuffer, batchShape, DataType.FLOAT32);
+
+		RlEnv.Step[] steps = new RlEnv.Step[count];
+		for (int i = 0; i < count; i++) {
+			int index = indices[i];
+			steps[i] = new BatchStep(this.batchManager,
+					new NDList(preObservations.get(i)),
+					new NDList(this.batchManager.create(this.actions[index])),
+					new NDList(postObservations.get(i)),
+					this.actionSpace,
+					this.rewards[index],
+					this.dones[index]);
+		}
+		return steps;
+	}
+
+	/**
+	 * 释放最近一次取样所构建的张量，容器中的样本不受影响
+	 */
+	public void releaseBatch() {
+		if (this.batchManager != null) {
+			this.batchManager.close();
+			this.batchManager = null;
+		}
+	}
+
+	@Override
+	public void close() {
+		releaseBatch();
+		this.replayEnv.close();
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * 把重放游戏的当前环境状态按对称变换写入缓冲区
+	 *
+	 * @param out       目标缓冲区
+	 * @param offset    写入的起始位置
+	 * @param squareMap 对称变换下的棋盘位置映射
+	 */
+	private void writeObservation(FloatBuffer out, int offset, int[] squareMap) {
+		this.cellBuffer.clear();
+		this.replayEnv.writeObservation(this.cellBuffer);
+		for (int base = 0; base < this.slotSize; base += this.numSquares) {
+			for (int square = 0; square < this.numSquares; square++) {
+				out.put(offset + base + squareMap[square], this.cells[base + square]);
+			}
+		}
+	}
+}
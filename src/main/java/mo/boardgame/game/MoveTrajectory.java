@@ -0,0 +1,74 @@
+package mo.boardgame.game;
+
+import org.apache.commons.lang3.Validate;
+
+import java.util.Arrays;
+
+/**
+ * 一局游戏的落子序列。环境状态完全由开局后的落子序列决定，样本只需记录所在的步数，
+ * 取样时从开局重放落子即可重建任意一步的环境状态。
+ * 同一局游戏的所有样本共用一个实例，落子只会追加，已记录的部分不再变化。
+ * 可由一个线程追加、其他线程重放。
+ *
+ * @author Caojunqi
+ * @date 2022-01-25 10:00
+ */
+public final class MoveTrajectory {
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private int[] moves = new int[INITIAL_CAPACITY];
+	private int moveCount;
+	/**
+	 * 棋局是否因非法落子而结束，是则最后一步为判负，棋盘不变，该非法落子记录在{@link #moves}的第{@link #moveCount}个位置
+	 */
+	private boolean forfeited;
+
+	/**
+	 * 把游戏中新增的落子追加到序列末尾
+	 *
+	 * @param gameEnv 正在进行的游戏，必须是本序列所记录的那一局
+	 */
+	public synchronized void sync(BaseBoardGameEnv gameEnv) {
+		int count = gameEnv.getMoveCount();
+		Validate.validState(count >= this.moveCount && !this.forfeited, "落子序列与游戏不符！！recorded:%d, actual:%d", this.moveCount, count);
+		// 多留一个位置给导致判负的非法落子
+		if (count + 1 > this.moves.length) {
+			this.moves = Arrays.copyOf(this.moves, Math.max(count + 1, this.moves.length * 2));
+		}
+		for (int i = this.moveCount; i < count; i++) {
+			this.moves[i] = gameEnv.getMove(i);
+		}
+		this.moveCount = count;
+		this.forfeited = gameEnv.isForfeited();
+		if (this.forfeited) {
+			this.moves[count] = gameEnv.getForfeitMove();
+		}
+	}
+
+	/**
+	 * @return 已记录的步数，非法落子判负也计为一步
+	 */
+	public synchronized int getPly() {
+		return this.forfeited ? this.moveCount + 1 : this.moveCount;
+	}
+
+	/**
+	 * 在游戏上重放[fromPly, toPly)之间的落子
+	 *
+	 * @param gameEnv 用于重放的游戏，必须已处于第fromPly步
+	 * @param fromPly 起始步数
+	 * @param toPly   结束步数，不含
+	 */
+	public synchronized void replay(BaseBoardGameEnv gameEnv, int fromPly, int toPly) {
+		Validate.isTrue(fromPly >= 0 && fromPly <= toPly && toPly <= getPly(), "重放步数越界！！from:%d, to:%d, ply:%d", fromPly, toPly, getPly());
+		for (int ply = fromPly; ply < toPly; ply++) {
+			if (ply == this.moveCount) {
+				// 与实际对局一样以原来的非法落子判负，部分游戏的环境状态会记录这一步
+				gameEnv.forfeit(this.moves[ply]);
+			} else {
+				gameEnv.play(this.moves[ply]);
+			}
+		}
+	}
+}
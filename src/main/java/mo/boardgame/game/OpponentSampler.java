@@ -0,0 +1,123 @@
+package mo.boardgame.game;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * 对手采样器：按{@link OpponentWeighting}从模型索引中选择对手，并记录AI主角对各模型的对局结果。
+ * 各权重方式的别名表只在模型索引变化后重建，依赖对局结果的权重方式还会在{@link #refreshWinRates()}后按最新战绩重建，
+ * 其余情况下采样为O(1)。战绩随时记录，但不会每局都触发重建，通常每轮收集样本前刷新一次。
+ * 可由多个线程共用。
+ *
+ * @author Caojunqi
+ * @date 2022-01-22 16:00
+ */
+public final class OpponentSampler {
+
+	private final CheckpointIndex checkpointIndex;
+	/**
+	 * 模型名称 -> AI主角对该模型的战绩
+	 */
+	private final Map<String, Record> records = new HashMap<>();
+	/**
+	 * 别名表所用战绩的版本号，每次{@link #refreshWinRates()}且期间有新的对局结果时加一
+	 */
+	private long resultVersion;
+	/**
+	 * 上次刷新以来是否记录过新的对局结果
+	 */
+	private boolean resultsChanged;
+	private final Map<OpponentWeighting, Table> tables = new EnumMap<>(OpponentWeighting.class);
+
+	public OpponentSampler(CheckpointIndex checkpointIndex) {
+		this.checkpointIndex = checkpointIndex;
+	}
+
+	/**
+	 * @param weighting 权重方式
+	 * @param random    随机数生成器
+	 * @return 被选中的模型名称，没有模型时返回null
+	 */
+	public synchronized String sample(OpponentWeighting weighting, Random random) {
+		List<String> modelNames = this.checkpointIndex.getAll();
+		if (modelNames.isEmpty()) {
+			return null;
+		}
+		Table table = this.tables.get(weighting);
+		if (table == null || table.modelNames != modelNames
+				|| (weighting.dependsOnResults() && table.resultVersion != this.resultVersion)) {
+			table = buildTable(weighting, modelNames);
+			this.tables.put(weighting, table);
+		}
+		return modelNames.get(table.sampler.sample(random));
+	}
+
+	/**
+	 * 记录一局对局结果
+	 *
+	 * @param modelName 对手模型名称
+	 * @param reward    AI主角的终局收益，1为胜，-1为负，0为平
+	 */
+	public synchronized void recordResult(String modelName, float reward) {
+		Record record = this.records.computeIfAbsent(modelName, k -> new Record());
+		record.games++;
+		record.score += (Math.max(-1, Math.min(1, reward)) + 1) / 2;
+		this.resultsChanged = true;
+	}
+
+	/**
+	 * 让依赖对局结果的权重方式在下次采样时按最新战绩重建别名表
+	 */
+	public synchronized void refreshWinRates() {
+		if (this.resultsChanged) {
+			this.resultsChanged = false;
+			this.resultVersion++;
+		}
+	}
+
+	/**
+	 * @return AI主角对该模型的胜率，按拉普拉斯平滑，没有对局时为0.5
+	 */
+	public synchronized float getWinRate(String modelName) {
+		Record record = this.records.get(modelName);
+		if (record == null) {
+			return 0.5f;
+		}
+		return (record.score + 1) / (record.games + 2);
+	}
+
+	private Table buildTable(OpponentWeighting weighting, List<String> modelNames) {
+		int size = modelNames.size();
+		double[] weights = new double[size];
+		for (int i = 0; i < size; i++) {
+			weights[i] = weighting.weight(i, size, getWinRate(modelNames.get(i)));
+		}
+		return new Table(modelNames, this.resultVersion, new AliasSampler(weights));
+	}
+
+	private static final class Record {
+		private int games;
+		/**
+		 * 胜场计1，平局计0.5
+		 */
+		private float score;
+	}
+
+	private static final class Table {
+		/**
+		 * 构建时的模型索引，索引内容整体替换，因此按引用比较即可判断是否变化
+		 */
+		private final List<String> modelNames;
+		private final long resultVersion;
+		private final AliasSampler sampler;
+
+		private Table(List<String> modelNames, long resultVersion, AliasSampler sampler) {
+			this.modelNames = modelNames;
+			this.resultVersion = resultVersion;
+			this.sampler = sampler;
+		}
+	}
+}
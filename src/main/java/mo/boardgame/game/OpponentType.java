@@ -2,14 +2,8 @@ package mo.boardgame.game;
 
 import ai.djl.Model;
 import common.Tuple;
-import mo.boardgame.common.ConstantParameter;
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.FilenameUtils;
 
-import java.io.File;
-import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Random;
 
 /**
  * 左右互搏时的对手类型
@@ -24,29 +18,22 @@ public enum OpponentType {
 	 */
 	BEST {
 		@Override
-		public Tuple<String, Model> buildModel(BaseBoardGameEnv gameEnv, Tuple<String, Model> oldModelInfo) {
-			File modelDir = new File(ConstantParameter.MODEL_DIR + gameEnv.getName() + ConstantParameter.DIR_SEPARATOR);
-			Collection<File> modelFiles = FileUtils.listFiles(modelDir, null, true);
-			if (modelFiles.isEmpty()) {
+		public Tuple<String, Model> buildModel(BaseBoardGameEnv gameEnv, Tuple<String, Model> oldModelInfo, ModelCache modelCache, OpponentSampler opponentSampler) {
+			CheckpointIndex checkpointIndex = CheckpointIndex.of(gameEnv.getName());
+			if (checkpointIndex.isEmpty()) {
 				return null;
 			}
-			List<File> sortedFiles = new ArrayList<>(modelFiles);
-			sortedFiles.sort(Comparator.comparing(File::getName));
-			File bestModelFile = sortedFiles.get(sortedFiles.size() - 1);
-			String bestModelName = FilenameUtils.removeExtension(bestModelFile.getName());
+			String bestModelName = checkpointIndex.getBest();
 			if (oldModelInfo != null && oldModelInfo.first.equals(bestModelName)) {
 				// 最佳模型没有变
 				return oldModelInfo;
 			}
-			try {
-				File bestModelFileDir = new File(ConstantParameter.MODEL_DIR + gameEnv.getName() + ConstantParameter.DIR_SEPARATOR);
-				Model bestModel = gameEnv.buildBaseModel();
-				bestModel.load(bestModelFileDir.toPath(), ConstantParameter.BEST_MODEL_PREFIX, null);
-				System.out.println("对手模型切换为：" + bestModelName);
-				return new Tuple<>(bestModelName, bestModel);
-			} catch (Exception e) {
-				throw new RuntimeException(e);
+			Model bestModel = modelCache.acquire(gameEnv, bestModelName);
+			if (bestModel == null) {
+				return null;
 			}
+			System.out.println("对手模型切换为：" + bestModelName);
+			return new Tuple<>(bestModelName, bestModel);
 		}
 	},
 	/**
@@ -54,16 +41,12 @@ public enum OpponentType {
 	 */
 	MOSTLY_BEST {
 		@Override
-		public Tuple<String, Model> buildModel(BaseBoardGameEnv gameEnv, Tuple<String, Model> oldModelInfo) {
-			File modelDir = new File(ConstantParameter.MODEL_DIR + gameEnv.getName() + ConstantParameter.DIR_SEPARATOR);
-			Collection<File> modelFiles = FileUtils.listFiles(modelDir, null, true);
-			if (modelFiles.isEmpty()) {
+		public Tuple<String, Model> buildModel(BaseBoardGameEnv gameEnv, Tuple<String, Model> oldModelInfo, ModelCache modelCache, OpponentSampler opponentSampler) {
+			CheckpointIndex checkpointIndex = CheckpointIndex.of(gameEnv.getName());
+			if (checkpointIndex.isEmpty()) {
 				return null;
 			}
-			List<File> sortedFiles = new ArrayList<>(modelFiles);
-			sortedFiles.sort(Comparator.comparing(File::getName));
-			File bestModelFile = sortedFiles.get(sortedFiles.size() - 1);
-			String bestModelName = FilenameUtils.removeExtension(bestModelFile.getName());
+			String bestModelName = checkpointIndex.getBest();
 
 			Random random = gameEnv.getRandom();
 			String modelName;
@@ -72,29 +55,18 @@ public enum OpponentType {
 				modelName = bestModelName;
 			} else {
 				// 随机选择模型
-				File randomModelFile = sortedFiles.get(random.nextInt(sortedFiles.size()));
-				modelName = FilenameUtils.removeExtension(randomModelFile.getName());
+				modelName = checkpointIndex.getRandom(random);
 			}
 			if (oldModelInfo != null && oldModelInfo.first.equals(modelName)) {
 				// 模型没有变
 				return oldModelInfo;
 			}
-			try {
-				File modelFileDir = new File(ConstantParameter.MODEL_DIR + gameEnv.getName() + ConstantParameter.DIR_SEPARATOR);
-				Model model = gameEnv.buildBaseModel();
-				Map<String, String> options = new HashMap<>(1);
-				final Pattern pattern = java.util.regex.Pattern.compile(Pattern.quote(ConstantParameter.BEST_MODEL_PREFIX) + "-(\\d{4})");
-				Matcher m = pattern.matcher(modelName);
-				if (!m.matches()) {
-					return null;
-				}
-				options.put("epoch", m.group(1));
-				model.load(modelFileDir.toPath(), ConstantParameter.BEST_MODEL_PREFIX, options);
-//                System.out.println("对手模型切换为：" + modelName);
-				return new Tuple<>(modelName, model);
-			} catch (Exception e) {
-				throw new RuntimeException(e);
+			Model model = modelCache.acquire(gameEnv, modelName);
+			if (model == null) {
+				return null;
 			}
+//                System.out.println("对手模型切换为：" + modelName);
+			return new Tuple<>(modelName, model);
 		}
 	},
 	/**
@@ -102,38 +74,29 @@ public enum OpponentType {
 	 */
 	RANK {
 		@Override
-		public Tuple<String, Model> buildModel(BaseBoardGameEnv gameEnv, Tuple<String, Model> oldModelInfo) {
-			File modelDir = new File(ConstantParameter.MODEL_DIR + gameEnv.getName() + ConstantParameter.DIR_SEPARATOR);
-			Collection<File> modelFiles = FileUtils.listFiles(modelDir, null, true);
-			if (modelFiles.isEmpty()) {
-				return null;
-			}
-			List<File> sortedFiles = new ArrayList<>(modelFiles);
-			sortedFiles.sort(Comparator.comparing(File::getName));
-			int rankRandomIndex = MathUtils.rankRandomIndex(gameEnv.getRandom(), sortedFiles.size());
-
-			File modelFile = sortedFiles.get(rankRandomIndex);
-			String modelName = FilenameUtils.removeExtension(modelFile.getName());
-			if (oldModelInfo != null && oldModelInfo.first.equals(modelName)) {
-				// 模型没有变
-				return oldModelInfo;
-			}
-			try {
-				File modelFileDir = new File(ConstantParameter.MODEL_DIR + gameEnv.getName() + ConstantParameter.DIR_SEPARATOR);
-				Model model = gameEnv.buildBaseModel();
-				Map<String, String> options = new HashMap<>(1);
-				final Pattern pattern = java.util.regex.Pattern.compile(Pattern.quote(ConstantParameter.BEST_MODEL_PREFIX) + "-(\\d{4})");
-				Matcher m = pattern.matcher(modelName);
-				if (!m.matches()) {
-					return null;
-				}
-				options.put("epoch", m.group(1));
-				model.load(modelFileDir.toPath(), ConstantParameter.BEST_MODEL_PREFIX, options);
-//                System.out.println("对手模型切换为：" + randomModelName);
-				return new Tuple<>(modelName, model);
-			} catch (Exception e) {
-				throw new RuntimeException(e);
-			}
+		public Tuple<String, Model> buildModel(BaseBoardGameEnv gameEnv, Tuple<String, Model> oldModelInfo, ModelCache modelCache, OpponentSampler opponentSampler) {
+			String modelName = opponentSampler.sample(OpponentWeighting.RANK, gameEnv.getRandom());
+			return switchModel(gameEnv, oldModelInfo, modelCache, modelName);
+		}
+	},
+	/**
+	 * 优先虚拟自我对弈：AI主角越难战胜的模型，被选中为对手的概率就越高
+	 */
+	PFSP {
+		@Override
+		public Tuple<String, Model> buildModel(BaseBoardGameEnv gameEnv, Tuple<String, Model> oldModelInfo, ModelCache modelCache, OpponentSampler opponentSampler) {
+			String modelName = opponentSampler.sample(OpponentWeighting.PFSP, gameEnv.getRandom());
+			return switchModel(gameEnv, oldModelInfo, modelCache, modelName);
+		}
+	},
+	/**
+	 * 按新旧程度选择对手，越新的模型被选中为对手的概率就越高，旧模型的概率指数衰减
+	 */
+	RECENCY {
+		@Override
+		public Tuple<String, Model> buildModel(BaseBoardGameEnv gameEnv, Tuple<String, Model> oldModelInfo, ModelCache modelCache, OpponentSampler opponentSampler) {
+			String modelName = opponentSampler.sample(OpponentWeighting.RECENCY, gameEnv.getRandom());
+			return switchModel(gameEnv, oldModelInfo, modelCache, modelName);
 		}
 	},
 	/**
@@ -141,45 +104,54 @@ public enum OpponentType {
 	 */
 	RANDOM {
 		@Override
-		public Tuple<String, Model> buildModel(BaseBoardGameEnv gameEnv, Tuple<String, Model> oldModelInfo) {
-			File modelDir = new File(ConstantParameter.MODEL_DIR + gameEnv.getName() + ConstantParameter.DIR_SEPARATOR);
-			Collection<File> modelFiles = FileUtils.listFiles(modelDir, null, true);
-			if (modelFiles.isEmpty()) {
+		public Tuple<String, Model> buildModel(BaseBoardGameEnv gameEnv, Tuple<String, Model> oldModelInfo, ModelCache modelCache, OpponentSampler opponentSampler) {
+			CheckpointIndex checkpointIndex = CheckpointIndex.of(gameEnv.getName());
+			if (checkpointIndex.isEmpty()) {
 				return null;
 			}
-			List<File> fileArr = new ArrayList<>(modelFiles);
-			File randomModelFile = fileArr.get(gameEnv.getRandom().nextInt(fileArr.size()));
-			String randomModelName = FilenameUtils.removeExtension(randomModelFile.getName());
+			String randomModelName = checkpointIndex.getRandom(gameEnv.getRandom());
 			if (oldModelInfo != null && oldModelInfo.first.equals(randomModelName)) {
 				// 模型没有变
 				return oldModelInfo;
 			}
-			try {
-				File modelFileDir = new File(ConstantParameter.MODEL_DIR + gameEnv.getName() + ConstantParameter.DIR_SEPARATOR);
-				Model model = gameEnv.buildBaseModel();
-				Map<String, String> options = new HashMap<>(1);
-				final Pattern pattern = java.util.regex.Pattern.compile(Pattern.quote(ConstantParameter.BEST_MODEL_PREFIX) + "-(\\d{4})");
-				Matcher m = pattern.matcher(randomModelName);
-				if (!m.matches()) {
-					return null;
-				}
-				options.put("epoch", m.group(1));
-				model.load(modelFileDir.toPath(), ConstantParameter.BEST_MODEL_PREFIX, options);
-//                System.out.println("对手模型切换为：" + randomModelName);
-				return new Tuple<>(randomModelName, model);
-			} catch (Exception e) {
-				throw new RuntimeException(e);
+			Model model = modelCache.acquire(gameEnv, randomModelName);
+			if (model == null) {
+				return null;
 			}
+//                System.out.println("对手模型切换为：" + randomModelName);
+			return new Tuple<>(randomModelName, model);
 		}
 	},
 	;
 
 	/**
-	 * 构建对手模型
+	 * 构建对手模型。模型变化时从模型缓存中取得新模型，调用方换下旧模型时需通过{@link ModelCache#release(String)}释放。
 	 *
-	 * @param gameEnv      游戏
-	 * @param oldModelInfo 最近一次使用的模型信息
+	 * @param gameEnv         游戏
+	 * @param oldModelInfo    最近一次使用的模型信息
+	 * @param modelCache      已加载模型的缓存
+	 * @param opponentSampler 按权重选择对手的采样器
 	 * @return 接下来要使用的模型信息
 	 */
-	public abstract Tuple<String, Model> buildModel(BaseBoardGameEnv gameEnv, Tuple<String, Model> oldModelInfo);
+	public abstract Tuple<String, Model> buildModel(BaseBoardGameEnv gameEnv, Tuple<String, Model> oldModelInfo, ModelCache modelCache, OpponentSampler opponentSampler);
+
+	/**
+	 * 切换到指定模型，模型没有变时沿用旧的模型信息
+	 *
+	 * @return 接下来要使用的模型信息，没有模型可选时返回null
+	 */
+	private static Tuple<String, Model> switchModel(BaseBoardGameEnv gameEnv, Tuple<String, Model> oldModelInfo, ModelCache modelCache, String modelName) {
+		if (modelName == null) {
+			return null;
+		}
+		if (oldModelInfo != null && oldModelInfo.first.equals(modelName)) {
+			// 模型没有变
+			return oldModelInfo;
+		}
+		Model model = modelCache.acquire(gameEnv, modelName);
+		if (model == null) {
+			return null;
+		}
+		return new Tuple<>(modelName, model);
+	}
 }
@@ -0,0 +1,65 @@
+package mo.boardgame.game;
+
+/**
+ * 按权重选择对手时的权重计算方式
+ *
+ * @author Caojunqi
+ * @date 2022-01-22 15:40
+ */
+public enum OpponentWeighting {
+
+	/**
+	 * 按排名线性加权，epoch越大的模型权重越高
+	 */
+	RANK {
+		@Override
+		public double weight(int rank, int size, float winRate) {
+			return rank + 1;
+		}
+	},
+	/**
+	 * 优先虚拟自我对弈(PFSP)：AI主角对该模型的胜率越低，权重越高
+	 */
+	PFSP {
+		@Override
+		public double weight(int rank, int size, float winRate) {
+			float lossRate = 1 - winRate;
+			return lossRate * lossRate;
+		}
+
+		@Override
+		public boolean dependsOnResults() {
+			return true;
+		}
+	},
+	/**
+	 * 按新旧程度指数衰减，最佳模型权重为1，每旧一个模型权重乘以{@link #RECENCY_DECAY}
+	 */
+	RECENCY {
+		@Override
+		public double weight(int rank, int size, float winRate) {
+			return Math.pow(RECENCY_DECAY, size - 1 - rank);
+		}
+	},
+	;
+
+	/**
+	 * 新旧程度衰减系数
+	 */
+	private static final double RECENCY_DECAY = 0.9;
+
+	/**
+	 * @param rank    模型排名，0为epoch最小的模型
+	 * @param size    模型总数
+	 * @param winRate AI主角对该模型的胜率，平局计为半场胜利
+	 * @return 该模型被选为对手的非负权重
+	 */
+	public abstract double weight(int rank, int size, float winRate);
+
+	/**
+	 * @return 权重是否依赖对局结果，依赖时在{@link OpponentSampler#refreshWinRates()}后重建采样器
+	 */
+	public boolean dependsOnResults() {
+		return false;
+	}
+}
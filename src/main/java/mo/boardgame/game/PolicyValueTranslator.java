@@ -0,0 +1,106 @@
+package mo.boardgame.game;
+
+import ai.djl.ndarray.NDArray;
+import ai.djl.ndarray.NDList;
+import ai.djl.ndarray.types.DataType;
+import ai.djl.ndarray.types.Shape;
+import ai.djl.translate.Batchifier;
+import ai.djl.translate.Translator;
+import ai.djl.translate.TranslatorContext;
+
+import java.nio.FloatBuffer;
+
+/**
+ * 策略价值网络的推理转换器：输入为按[批量, 通道, 行, 列]连续写好的环境状态，输出为各样本的价值和合法落子对数概率。
+ * 输出在推理上下文关闭前拷贝为Java数组，调用方不需要管理任何NDArray。
+ *
+ * @author Caojunqi
+ * @date 2022-01-21 10:20
+ */
+public final class PolicyValueTranslator implements Translator<FloatBuffer, PolicyValueTranslator.Output> {
+	/**
+	 * 模型输出中价值的位置
+	 */
+	private static final int VALUE_OUTPUT_INDEX = 1;
+	/**
+	 * 模型输出中合法落子对数概率的位置
+	 */
+	private static final int POLICY_OUTPUT_INDEX = 2;
+	/**
+	 * 推理输入的名称，策略价值网络据此识别出本转换器的调用，只计算价值和策略
+	 */
+	private static final String INFERENCE_INPUT_NAME = "policy_value_inference";
+
+	/**
+	 * 单个环境状态的形状，[通道, 行, 列]
+	 */
+	private final Shape slotShape;
+	private final int slotSize;
+
+	public PolicyValueTranslator(Shape slotShape) {
+		this.slotShape = slotShape;
+		this.slotSize = (int) slotShape.size();
+	}
+
+	@Override
+	public NDList processInput(TranslatorContext ctx, FloatBuffer input) {
+		int batchSize = input.remaining() / this.slotSize;
+		Shape inputShape = new Shape(batchSize, this.slotShape.get(0), this.slotShape.get(1), this.slotShape.get(2));
+		NDArray array = ctx.getNDManager().create(input, inputShape, DataType.FLOAT32);
+		array.setName(INFERENCE_INPUT_NAME);
+		return new NDList(array);
+	}
+
+	/**
+	 * 策略价值网络在前向计算中调用，本转换器只读取价值和策略，网络可以跳过行为的选取和熵的计算。
+	 * 注：行为需要attach到网络的长期管理器上才能带出推理上下文，每次推理都选取行为会造成native内存泄漏。
+	 *
+	 * @param inputs 网络的输入
+	 * @return 是否为本转换器发起的推理
+	 */
+	public static boolean isInferenceInput(NDList inputs) {
+		return INFERENCE_INPUT_NAME.equals(inputs.get(0).getName());
+	}
+
+	@Override
+	public Output processOutput(TranslatorContext ctx, NDList list) {
+		float[] values = list.get(VALUE_OUTPUT_INDEX).toFloatArray();
+		float[] logPolicy = list.get(POLICY_OUTPUT_INDEX).toFloatArray();
+		return new Output(values, logPolicy);
+	}
+
+	/**
+	 * 输入已经带有批量维度，不需要再拼接
+	 */
+	@Override
+	public Batchifier getBatchifier() {
+		return null;
+	}
+
+	/**
+	 * 一批样本的推理结果
+	 */
+	public static final class Output {
+		/**
+		 * 各样本站在行动玩家视角的价值
+		 */
+		private final float[] values;
+		/**
+		 * 各样本的合法落子对数概率，按[批量, 行为]展开
+		 */
+		private final float[] logPolicy;
+
+		private Output(float[] values, float[] logPolicy) {
+			this.values = values;
+			this.logPolicy = logPolicy;
+		}
+
+		public float[] getValues() {
+			return values;
+		}
+
+		public float[] getLogPolicy() {
+			return logPolicy;
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package mo.boardgame.game;
+
+import ai.djl.modality.rl.ReplayBuffer;
+import ai.djl.modality.rl.env.RlEnv;
+import ai.djl.ndarray.NDManager;
+import algorithm.ppo2.FixedBuffer;
+
+import java.util.Random;
+
+/**
+ * 左右互搏时的样本容器类型
+ *
+ * @author Caojunqi
+ * @date 2022-01-24 11:20
+ */
+public enum ReplayBufferType {
+
+	/**
+	 * 直接保存样本对象，每个样本持有自己的管理器和环境状态张量
+	 */
+	FIXED {
+		@Override
+		public ReplayBuffer build(NDManager manager, Random random, int batchSize, int capacity, BaseBoardGameEnv gameEnv) {
+			return new FixedBuffer(batchSize, capacity);
+		}
+
+		@Override
+		public void release(ReplayBuffer buffer) {
+			for (RlEnv.Step step : buffer.getBatch()) {
+				if (step != null) {
+					step.close();
+				}
+			}
+		}
+	},
+	/**
+	 * 在堆外内存中保存打包后的样本，取样时才构建张量
+	 */
+	COMPACT {
+		@Override
+		public ReplayBuffer build(NDManager manager, Random random, int batchSize, int capacity, BaseBoardGameEnv gameEnv) {
+			return new CompactReplayBuffer(manager, random, batchSize, capacity, gameEnv.getObservationSlotShape());
+		}
+
+		@Override
+		public void release(ReplayBuffer buffer) {
+			((CompactReplayBuffer) buffer).close();
+		}
+
+		@Override
+		public boolean copiesSteps() {
+			return true;
+		}
+	},
+	/**
+	 * 只保存每局游戏的落子序列，取样时重放落子重建环境状态，只接受{@link SelfPlayEnv}及{@link VectorSelfPlayEnv}生成的样本
+	 */
+	MOVE_LIST {
+		@Override
+		public ReplayBuffer build(NDManager manager, Random random, int batchSize, int capacity, BaseBoardGameEnv gameEnv) {
+			return new MoveListReplayBuffer(manager, random, batchSize, capacity, gameEnv);
+		}
+
+		@Override
+		public void release(ReplayBuffer buffer) {
+			((MoveListReplayBuffer) buffer).close();
+		}
+
+		@Override
+		public boolean copiesSteps() {
+			return true;
+		}
+	},
+	;
+
+	/**
+	 * 构建样本容器
+	 *
+	 * @param manager   样本容器所用的管理器
+	 * @param random    随机数生成器
+	 * @param batchSize 每次取样的样本数
+	 * @param capacity  最多保存的样本数
+	 * @param gameEnv   游戏
+	 * @return 样本容器
+	 */
+	public abstract ReplayBuffer build(NDManager manager, Random random, int batchSize, int capacity, BaseBoardGameEnv gameEnv);
+
+	/**
+	 * 释放样本容器所占用的资源
+	 *
+	 * @param buffer 由{@link #build}构建的样本容器
+	 */
+	public abstract void release(ReplayBuffer buffer);
+
+	/**
+	 * @return 存入样本时是否只拷贝其内容，是则样本存入后仍由调用方负责释放
+	 */
+	public boolean copiesSteps() {
+		return false;
+	}
+}
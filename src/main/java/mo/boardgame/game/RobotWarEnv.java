@@ -5,19 +5,11 @@ import ai.djl.modality.rl.agent.RlAgent;
 import ai.djl.modality.rl.env.RlEnv;
 import ai.djl.ndarray.NDList;
 import ai.djl.ndarray.NDManager;
-import ai.djl.training.DefaultTrainingConfig;
-import ai.djl.training.Trainer;
-import ai.djl.training.TrainingConfig;
-import ai.djl.training.loss.Loss;
-import algorithm.ppo2.PPO;
+import algorithm.RlAgentCloseable;
 import mo.boardgame.common.ConstantParameter;
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.FilenameUtils;
 
-import java.io.File;
-import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.List;
+import java.util.Random;
 
 /**
  * 机器人混战：用于测试不同版本的机器人之间的性能
@@ -26,11 +18,6 @@ import java.util.regex.Pattern;
  * @date 2021-12-08 22:04
  */
 public class RobotWarEnv {
-	/**
-	 * 用于从模型文件名称中获取到epoch信息的正则表达式
-	 */
-	private static final Pattern EPOCH_PATTERN = Pattern.compile(Pattern.quote(ConstantParameter.BEST_MODEL_PREFIX) + "-(\\d{4})");
-
 	/**
 	 * 总战斗次数
 	 */
@@ -47,41 +34,46 @@ public class RobotWarEnv {
 	 * 游戏环境
 	 */
 	private BaseBoardGameEnv gameEnv;
+	/**
+	 * 机器人智能体类型
+	 */
+	private AgentType agentType;
 	/**
 	 * 机器人智能体
 	 */
-	private RlAgent[] agents;
+	private RlAgentCloseable[] agents;
+	/**
+	 * 各智能体所用的模型名称
+	 */
+	private String[] agentModelNames;
+	/**
+	 * 机器人的估值缓存，同一模型的多次对战之间共享
+	 */
+	private EvaluationCache evaluationCache = new EvaluationCache(EvaluationCache.DEFAULT_CAPACITY);
+	/**
+	 * 已加载的模型，最佳模型参与每一对测试，只需加载一次
+	 */
+	private ModelCache modelCache = new ModelCache(ModelCache.DEFAULT_MAX_BYTES, null);
 
-	public RobotWarEnv(NDManager manager, Random random, BaseBoardGameEnv gameEnv) {
+	public RobotWarEnv(NDManager manager, Random random, BaseBoardGameEnv gameEnv, AgentType agentType) {
 		this.manager = manager;
 		this.random = random;
 		this.gameEnv = gameEnv;
-		this.agents = new RlAgent[this.gameEnv.getPlayerNum()];
+		this.agentType = agentType;
+		this.agents = new RlAgentCloseable[this.gameEnv.getPlayerNum()];
+		this.agentModelNames = new String[this.gameEnv.getPlayerNum()];
 	}
 
 	public void run() {
-		File modelDir = new File(ConstantParameter.MODEL_DIR + gameEnv.getName() + ConstantParameter.DIR_SEPARATOR);
-		Collection<File> modelFiles = FileUtils.listFiles(modelDir, null, true);
-		if (modelFiles.isEmpty() || modelFiles.size() < 2) {
+		List<String> modelNames = CheckpointIndex.of(gameEnv.getName()).getAll();
+		if (modelNames.size() < 2) {
 			return;
 		}
-		List<File> sortedFiles = new ArrayList<>(modelFiles);
-		sortedFiles.sort(Comparator.comparing(File::getName));
-		File bestModelFile = sortedFiles.get(sortedFiles.size() - 1);
-		String bestModelName = FilenameUtils.removeExtension(bestModelFile.getName());
-		Matcher bestM = EPOCH_PATTERN.matcher(bestModelName);
-		if (!bestM.matches()) {
-			throw new IllegalStateException("训练出来的模型名称不规范，不能获取到epoch！！ 模型名称：" + bestModelName);
-		}
-		String bestModelEpoch = bestM.group(1);
-		for (int i = 0; i < sortedFiles.size() - 1; i++) {
-			File modelFile = sortedFiles.get(i);
-			String modelName = FilenameUtils.removeExtension(modelFile.getName());
-			Matcher m = EPOCH_PATTERN.matcher(modelName);
-			if (!m.matches()) {
-				throw new IllegalStateException("训练出来的模型名称不规范，不能获取到epoch！！ 模型名称：" + bestModelName);
-			}
-			String modelEpoch = m.group(1);
+		// 测试期间新产生的模型不参与本轮测试
+		String bestModelName = modelNames.get(modelNames.size() - 1);
+		String bestModelEpoch = CheckpointIndex.parseEpoch(bestModelName);
+		for (int i = 0; i < modelNames.size() - 1; i++) {
+			String modelEpoch = CheckpointIndex.parseEpoch(modelNames.get(i));
 
 			String[] modelEpochs = new String[]{bestModelEpoch, modelEpoch};
 			runOnePairEpochs(modelEpochs);
@@ -101,6 +93,8 @@ public class RobotWarEnv {
 			}
 		}
 		System.out.println("战斗结束，比分：" + output(modelEpochs, warResult));
+		System.out.println("估值缓存：" + this.evaluationCache);
+		releaseAgents();
 	}
 
 	private float[] onceWar() {
@@ -127,26 +121,33 @@ public class RobotWarEnv {
 		}
 
 		for (int i = 0; i < modelEpochs.length; i++) {
-			String fullName = ConstantParameter.MODEL_DIR +
-					this.gameEnv.getName() +
-					ConstantParameter.DIR_SEPARATOR;
-			File file = new File(fullName);
-			Model model = gameEnv.buildBaseModel();
-			try {
-				Map<String, String> options = new HashMap<>(1);
-				options.put("epoch", modelEpochs[i]);
-				model.load(file.toPath(), ConstantParameter.BEST_MODEL_PREFIX, options);
-			} catch (Exception e) {
-				throw new RuntimeException(e);
+			String modelName = ConstantParameter.BEST_MODEL_PREFIX + "-" + modelEpochs[i];
+			Model model = this.modelCache.acquire(this.gameEnv, modelName);
+			if (model == null) {
+				throw new IllegalStateException("训练出来的模型名称不规范，不能获取到epoch！！ 模型名称：" + modelName);
 			}
+			this.agentModelNames[i] = modelName;
+			EvaluationCache.View cacheView = this.evaluationCache.view(modelName, model);
+			this.agents[i] = this.agentType.buildAgent(manager.newSubManager(), random, model,
+					gameEnv.getObservationSlotShape(), cacheView);
+		}
+	}
 
-			TrainingConfig config = new DefaultTrainingConfig(Loss.l2Loss());
-			Trainer trainer = model.newTrainer(config);
-			trainer.initialize(gameEnv.getObservationShape());
-			trainer.notifyListeners(listener -> listener.onTrainingBegin(trainer));
-			PPO agent = new PPO(manager.newSubManager(), random, trainer);
-			this.agents[i] = agent;
+	/**
+	 * 关闭本轮测试的智能体，并把模型释放回模型缓存
+	 */
+	private void releaseAgents() {
+		for (int i = 0; i < this.agents.length; i++) {
+			if (this.agents[i] != null) {
+				this.agents[i].close();
+				this.agents[i] = null;
+			}
+			if (this.agentModelNames[i] != null) {
+				this.modelCache.release(this.agentModelNames[i]);
+				this.agentModelNames[i] = null;
+			}
 		}
+		System.out.println("模型缓存：" + this.modelCache);
 	}
 
 	private String output(String[] modelEpochs, float[] warResult) {
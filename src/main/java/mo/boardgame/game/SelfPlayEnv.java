@@ -8,23 +8,31 @@ import ai.djl.modality.rl.env.RlEnv;
 import ai.djl.ndarray.NDArray;
 import ai.djl.ndarray.NDList;
 import ai.djl.ndarray.NDManager;
+import ai.djl.nn.Parameter;
 import ai.djl.training.DefaultTrainingConfig;
 import ai.djl.training.Trainer;
 import ai.djl.training.TrainingConfig;
 import ai.djl.training.loss.Loss;
 import ai.djl.training.optimizer.Adam;
 import ai.djl.training.tracker.Tracker;
+import ai.djl.util.PairList;
 import ai.djl.util.RandomUtils;
 import algorithm.CommonParameter;
 import algorithm.RlAgentCloseable;
-import algorithm.ppo2.FixedBuffer;
 import algorithm.ppo2.PPO;
 import common.Tuple;
 import mo.boardgame.common.ConstantParameter;
+import org.apache.commons.lang3.Validate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * “左右互搏”环境
@@ -52,7 +60,24 @@ public class SelfPlayEnv implements RlEnv {
 	 * 对手类型
 	 */
 	private OpponentType opponentType;
+	/**
+	 * 对手智能体类型
+	 */
+	private AgentType opponentAgentType;
+	/**
+	 * 样本增强方式
+	 */
+	private AugmentationType augmentationType;
+	/**
+	 * 样本容器类型
+	 */
+	private ReplayBufferType replayBufferType;
 	private int curBufferSize;
+	/**
+	 * 当前样本容器中所有样本的模型参数版本号之和及最小值，用于统计样本落后的版本数
+	 */
+	private long bufferVersionSum;
+	private long bufferMinVersion;
 	/**
 	 * 当前AI主角，使用的是正在优化的模型，其对手使用的是上一次优化完成的模型
 	 */
@@ -61,27 +86,117 @@ public class SelfPlayEnv implements RlEnv {
 	 * 当前要训练的AI智能体
 	 */
 	private RlAgent aiAgent;
+	/**
+	 * AI主角正在优化的模型
+	 */
+	private Model aiModel;
 	/**
 	 * 所有参与游戏的AI主体，处于{@link SelfPlayEnv#agentPlayerId}位置的Agent为null。
 	 */
 	private RlAgentCloseable[] agents;
+	/**
+	 * 当前这局游戏的落子序列
+	 */
+	private MoveTrajectory trajectory;
+	/**
+	 * AI主角下一个样本的前环境状态，即上一个样本的后环境状态，与两个样本共用
+	 */
+	private SharedObservation nextPreObservation;
+	/**
+	 * 训练时当前这局游戏中AI主角的样本，一局结束后整局存入样本容器
+	 */
+	private List<SelfPlayEnvStep> episode = new ArrayList<>();
+	/**
+	 * 上一局最后一个返回给调用方、又不由样本容器接管的样本，下一局开始时释放
+	 */
+	private SelfPlayEnvStep finishedStep;
 	/**
 	 * 对手所用的模型信息 <模型名称, 模型参数信息>
 	 */
 	private Tuple<String, Model> opponentModelInfo;
+	/**
+	 * 对手模型的估值缓存。每次加载的对手模型都是新的模型实例，会登记为新的代次，
+	 * 因此训练中的模型保存为新的最佳模型后，对手重新加载时不会命中旧参数的缓存。
+	 */
+	private EvaluationCache evaluationCache = new EvaluationCache(EvaluationCache.DEFAULT_CAPACITY);
+	/**
+	 * 对手智能体池
+	 */
+	private AgentPool agentPool = new AgentPool();
+	/**
+	 * 已加载的对手模型，模型被淘汰时作废使用它的对手智能体
+	 */
+	private ModelCache modelCache = new ModelCache(ModelCache.DEFAULT_MAX_BYTES, this.agentPool::retire);
+	/**
+	 * 按权重选择对手，并记录AI主角对各对手模型的战绩
+	 */
+	private OpponentSampler opponentSampler;
+	/**
+	 * 同时进行多局游戏收集样本的向量化环境，只进行一局时为null
+	 */
+	private VectorSelfPlayEnv vectorEnv;
+	/**
+	 * AI主角模型参数的版本号，每训练一次加一
+	 */
+	private long policyVersion;
+	/**
+	 * 双缓冲时在后台训练的线程，不启用双缓冲时为null
+	 */
+	private ExecutorService trainExecutor;
+	/**
+	 * 双缓冲时正在后台训练的样本容器
+	 */
+	private ReplayBuffer trainingBuffer;
+	private Future<?> trainingFuture;
+	/**
+	 * 双缓冲时收集样本所用的模型，后台训练进行中保持不变，每轮训练结束后从{@link #aiModel}拷贝参数
+	 */
+	private Model behaviorModel;
+	/**
+	 * 收集样本所用模型参数的版本号
+	 */
+	private long behaviorVersion;
+
+	public SelfPlayEnv(NDManager manager,
+					   Random random,
+					   BaseBoardGameEnv gameEnv,
+					   int batchSize,
+					   int replayBufferSize,
+					   OpponentType opponentType,
+					   AgentType opponentAgentType,
+					   AugmentationType augmentationType) {
+		this(manager, random, gameEnv, batchSize, replayBufferSize, opponentType, opponentAgentType, augmentationType, 1, false, ReplayBufferType.FIXED);
+	}
 
+	/**
+	 * @param numEnvs        收集样本时同时进行的游戏局数，大于1时对手只能是{@link AgentType#POLICY}
+	 * @param doubleBuffered 是否启用双缓冲：用一个样本容器收集样本的同时，在后台线程用另一个样本容器训练，
+	 *                       启用时对手只能是{@link AgentType#POLICY}
+	 * @param replayBufferType 样本容器类型
+	 */
 	public SelfPlayEnv(NDManager manager,
 					   Random random,
 					   BaseBoardGameEnv gameEnv,
 					   int batchSize,
 					   int replayBufferSize,
-					   OpponentType opponentType) {
+					   OpponentType opponentType,
+					   AgentType opponentAgentType,
+					   AugmentationType augmentationType,
+					   int numEnvs,
+					   boolean doubleBuffered,
+					   ReplayBufferType replayBufferType) {
+		Validate.isTrue((numEnvs == 1 && !doubleBuffered) || opponentAgentType == AgentType.POLICY,
+				"同时进行多局游戏或启用双缓冲时，对手只支持策略网络直接落子！！opponentAgentType:%s", opponentAgentType);
 		this.manager = manager;
 		this.random = random;
 		this.gameEnv = gameEnv;
 		this.batchSize = batchSize;
 		this.replayBufferSize = replayBufferSize;
 		this.opponentType = opponentType;
+		this.opponentAgentType = opponentAgentType;
+		this.augmentationType = augmentationType;
+		this.replayBufferType = replayBufferType;
+		this.opponentSampler = new OpponentSampler(CheckpointIndex.of(gameEnv.getName()));
 		resetBuffer();
 
 		Model model = gameEnv.buildBaseModel();
@@ -90,19 +205,39 @@ public class SelfPlayEnv implements RlEnv {
 		trainer.initialize(gameEnv.getObservationShape());
 		trainer.notifyListeners(listener -> listener.onTrainingBegin(trainer));
 		this.aiAgent = new PPO(manager.newSubManager(), random, trainer);
+		this.aiModel = model;
+		if (doubleBuffered) {
+			// 后台训练会改动aiModel的参数，收集样本改用一份参数快照
+			this.behaviorModel = gameEnv.buildBaseModel();
+			InferenceAgent.initializeIfNeeded(this.behaviorModel, gameEnv.getObservationShape());
+			syncBehaviorModel();
+			this.trainExecutor = Executors.newSingleThreadExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "self-play-trainer");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		if (numEnvs > 1 || doubleBuffered) {
+			Model collectModel = doubleBuffered ? this.behaviorModel : model;
+			this.vectorEnv = new VectorSelfPlayEnv(manager.newSubManager(), random, gameEnv, collectModel,
+					opponentType, this.modelCache, this.opponentSampler, numEnvs);
+		}
 	}
 
 	@Override
 	public void reset() {
 		gameEnv.reset();
+		releaseNextPreObservation();
+		releaseEpisode();
 		if (this.agents != null) {
 			for (RlAgentCloseable agent : this.agents) {
 				if (agent != null) {
-					agent.close();
+					this.agentPool.giveBack(agent);
 				}
 			}
 		}
 		this.agents = new RlAgentCloseable[gameEnv.getPlayerNum()];
+		this.trajectory = new MoveTrajectory();
 		this.agentPlayerId = RandomUtils.nextInt(gameEnv.getPlayerNum());
 		setupOpponents();
 		if (this.agentPlayerId != gameEnv.getCurPlayerId()) {
@@ -110,9 +245,13 @@ public class SelfPlayEnv implements RlEnv {
 		}
 	}
 
+	/**
+	 * 供AI主角每步选择行为时读取，返回游戏环境复用的NDArray，不新分配native内存。
+	 * 注：内容在下一次落子时即被覆盖，调用方不可长期持有，也不可关闭。
+	 */
 	@Override
 	public NDList getObservation() {
-		return this.gameEnv.getObservation();
+		return this.gameEnv.getObservationView();
 	}
 
 	@Override
@@ -122,8 +261,10 @@ public class SelfPlayEnv implements RlEnv {
 
 	@Override
 	public RlEnv.Step step(NDList action, boolean training) {
-		RlEnv.Step step = this.gameEnv.step(action, training);
-		NDList preObservation = step.getPreObservation();
+		int prePly = this.gameEnv.getMoveCount();
+		RlEnv.Step agentStep = this.gameEnv.step(action, training);
+		SharedObservation preObservation = takePreObservation(agentStep);
+		RlEnv.Step step = agentStep;
 		if (!step.isDone()) {
 			RlEnv.Step opponentStep = continueGame();
 			if (opponentStep != null) {
@@ -133,22 +274,87 @@ public class SelfPlayEnv implements RlEnv {
 
 		float[] allAgentsRewards = step.getReward().flatten().toFloatArray();
 		float reward = allAgentsRewards[agentPlayerId];
-		RlEnv.Step selfPlayStep =
+		if (training && step.isDone()) {
+			// 评估对局不计入战绩，以免影响按战绩选择对手
+			this.opponentSampler.recordResult(this.opponentModelInfo.first, reward);
+		}
+		SharedObservation postObservation = new SharedObservation(manager.newSubManager(), step.getPostObservation());
+		if (!step.isDone()) {
+			this.nextPreObservation = postObservation.retain();
+		}
+		SelfPlayEnvStep selfPlayStep =
 				new SelfPlayEnvStep(manager.newSubManager(),
 						preObservation,
 						action,
-						step.getPostObservation(),
+						postObservation,
 						step.getPostActionSpace(),
 						reward,
-						step.isDone());
+						step.isDone(),
+						this.policyVersion);
+		this.trajectory.sync(this.gameEnv);
+		selfPlayStep.setTrajectory(this.trajectory, prePly, this.trajectory.getPly());
+		if (step != agentStep) {
+			agentStep.close();
+		}
 		step.close();
 		if (training) {
-			replayBuffer.addStep(selfPlayStep);
-			this.curBufferSize++;
+			this.episode.add(selfPlayStep);
+			if (selfPlayStep.isDone()) {
+				List<SelfPlayEnvStep> finished = this.episode;
+				this.episode = new ArrayList<>();
+				int owned = storeEpisode(finished);
+				// 最后一个样本还要返回给调用方，不由样本容器接管时留到下一局开始再释放
+				for (int i = owned; i < finished.size() - 1; i++) {
+					finished.get(i).close();
+				}
+				if (owned < finished.size()) {
+					this.finishedStep = selfPlayStep;
+				}
+			}
 		}
 		return selfPlayStep;
 	}
 
+	/**
+	 * 取得AI主角这一步的前环境状态：同一局游戏中沿用上一步的后环境状态，否则拷贝这一步借用的前环境状态。
+	 * 注：须在对手落子之前调用，对手落子会覆盖游戏环境复用的NDArray。
+	 *
+	 * @param agentStep AI主角落子的一步
+	 * @return 前环境状态，调用方持有一个引用
+	 */
+	private SharedObservation takePreObservation(RlEnv.Step agentStep) {
+		SharedObservation preObservation = this.nextPreObservation;
+		this.nextPreObservation = null;
+		if (preObservation != null) {
+			return preObservation;
+		}
+		return new SharedObservation(manager.newSubManager(), new NDList(agentStep.getPreObservation().singletonOrThrow().duplicate()));
+	}
+
+	/**
+	 * 释放沿用到下一步的环境状态，重新开局或关闭环境时调用
+	 */
+	private void releaseNextPreObservation() {
+		if (this.nextPreObservation != null) {
+			this.nextPreObservation.release();
+			this.nextPreObservation = null;
+		}
+	}
+
+	/**
+	 * 释放尚未存入样本容器的样本：中途放弃的这局游戏，以及上一局返回给调用方的最后一个样本
+	 */
+	private void releaseEpisode() {
+		for (SelfPlayEnvStep step : this.episode) {
+			step.close();
+		}
+		this.episode.clear();
+		if (this.finishedStep != null) {
+			this.finishedStep.close();
+			this.finishedStep = null;
+		}
+	}
+
 	@Override
 	public Step[] getBatch() {
 		return this.replayBuffer.getBatch();
@@ -156,6 +362,18 @@ public class SelfPlayEnv implements RlEnv {
 
 	@Override
 	public void close() {
+		if (this.trainExecutor != null) {
+			awaitTraining();
+			this.trainExecutor.shutdown();
+			this.behaviorModel.close();
+		}
+		if (this.vectorEnv != null) {
+			this.vectorEnv.close();
+		}
+		releaseNextPreObservation();
+		releaseEpisode();
+		this.agentPool.close();
+		this.modelCache.close();
 		manager.close();
 	}
 
@@ -163,39 +381,170 @@ public class SelfPlayEnv implements RlEnv {
 		int episode = 0;
 		float episodeReward = 0;
 		resetBuffer();
+		this.opponentSampler.refreshWinRates();
 		// 收集样本数据
+		if (this.vectorEnv != null) {
+			this.vectorEnv.setPolicyVersion(this.trainExecutor != null ? this.behaviorVersion : this.policyVersion);
+			this.vectorEnv.resetStatistics();
+			while (!isBufferFull()) {
+				this.vectorEnv.step(this::addEpisode);
+			}
+			episode = this.vectorEnv.getEpisodeCount();
+			episodeReward = this.vectorEnv.getEpisodeReward();
+		}
 		while (this.curBufferSize < replayBufferSize) {
 			episode++;
 			float result = runEnvironment(this.aiAgent, true);
 			episodeReward += result;
 		}
 		System.out.println("train: episode[" + episode + "], episodeReward[" + episodeReward + "], avgReward[" + episodeReward / episode + "]");
+		logger.info(this.evaluationCache.toString());
+		logger.info(this.agentPool.toString());
+		logger.info(this.modelCache.toString());
 		// 训练模型
-		this.aiAgent.trainBatch(getBatch());
+		if (this.trainExecutor == null) {
+			trainBatch();
+			return;
+		}
+		// 双缓冲：等上一轮后台训练结束，再把刚收集满的样本容器交给后台训练，下一轮收集使用新的样本容器
+		awaitTraining();
+		logPolicyLag();
+		ReplayBuffer buffer = this.replayBuffer;
+		this.trainingBuffer = buffer;
+		this.replayBuffer = null;
+		this.trainingFuture = this.trainExecutor.submit(() -> trainBatch(buffer));
+	}
+
+	/**
+	 * 等待后台训练结束，释放其样本，并把训练后的参数拷贝给收集样本所用的模型
+	 */
+	private void awaitTraining() {
+		if (this.trainingFuture == null) {
+			return;
+		}
+		try {
+			this.trainingFuture.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("等待后台训练时被中断！！", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("后台训练失败！！", e.getCause());
+		} finally {
+			this.trainingFuture = null;
+			releaseBuffer(this.trainingBuffer);
+			this.trainingBuffer = null;
+		}
+		syncBehaviorModel();
+	}
+
+	/**
+	 * 把{@link #aiModel}的参数原地拷贝给{@link #behaviorModel}
+	 */
+	private void syncBehaviorModel() {
+		PairList<String, Parameter> source = this.aiModel.getBlock().getParameters();
+		PairList<String, Parameter> target = this.behaviorModel.getBlock().getParameters();
+		for (int i = 0; i < source.size(); i++) {
+			source.valueAt(i).getArray().copyTo(target.valueAt(i).getArray());
+		}
+		this.behaviorVersion = this.policyVersion;
+	}
+
+	/**
+	 * 记录样本落后于当前模型参数的版本数
+	 */
+	private void logPolicyLag() {
+		if (this.curBufferSize == 0) {
+			return;
+		}
+		float avgLag = this.policyVersion - (float) this.bufferVersionSum / this.curBufferSize;
+		long maxLag = this.policyVersion - this.bufferMinVersion;
+		logger.info("样本参数版本落后: avg[" + avgLag + "], max[" + maxLag + "]");
 	}
 
 	public float eval() {
 		return runEnvironment(aiAgent, false);
 	}
 
+	/**
+	 * 按样本增强方式存入一局游戏的样本：每种对称变换下的整局样本各自连续存放，
+	 * 保证样本容器中的每一段都是一局按先后顺序排列的游戏。样本容器装满后不再存入。
+	 *
+	 * 样本容器只拷贝样本内容时，变换后的样本存入后立即释放，原始样本都不由容器接管。
+	 *
+	 * @param episode 一局游戏中AI主角的全部样本，按先后顺序排列
+	 * @return 由样本容器接管的原始样本数，即episode中的前若干个，其余原始样本仍由调用方负责释放
+	 */
+	private int storeEpisode(List<SelfPlayEnvStep> episode) {
+		int gridLength = (int) this.gameEnv.getObservationSlotShape().get(1);
+		boolean copiesSteps = this.replayBufferType.copiesSteps();
+		int owned = 0;
+		for (DihedralTransform transform : this.augmentationType.selectTransforms(this.random)) {
+			boolean original = transform == DihedralTransform.IDENTITY;
+			for (SelfPlayEnvStep step : episode) {
+				if (isBufferFull()) {
+					return owned;
+				}
+				SelfPlayEnvStep sample = original ? step : step.transform(manager.newSubManager(), transform, gridLength);
+				this.replayBuffer.addStep(sample);
+				recordPolicyVersion(sample.getPolicyVersion());
+				this.curBufferSize++;
+				if (copiesSteps) {
+					if (!original) {
+						sample.close();
+					}
+				} else if (original) {
+					owned++;
+				}
+			}
+		}
+		return owned;
+	}
+
+	/**
+	 * 存入一局游戏的样本，调用方不再持有这些样本
+	 *
+	 * @param episode 一局游戏中AI主角的全部样本，按先后顺序排列
+	 */
+	void addEpisode(List<SelfPlayEnvStep> episode) {
+		int owned = storeEpisode(episode);
+		for (int i = owned; i < episode.size(); i++) {
+			episode.get(i).close();
+		}
+	}
+
+	private void recordPolicyVersion(long version) {
+		this.bufferVersionSum += version;
+		this.bufferMinVersion = this.curBufferSize == 0 ? version : Math.min(this.bufferMinVersion, version);
+	}
+
 	/**
 	 * 加载对手所用模型信息
 	 */
 	private void loadOpponentModelInfo() {
-		Tuple<String, Model> newOpponentModelInfo = this.opponentType.buildModel(this.gameEnv, this.opponentModelInfo);
+		Tuple<String, Model> newOpponentModelInfo = this.opponentType.buildModel(this.gameEnv, this.opponentModelInfo, this.modelCache, this.opponentSampler);
 		if (newOpponentModelInfo == null) {
+			if (this.opponentModelInfo != null && ConstantParameter.BASE_MODEL_NAME.equals(this.opponentModelInfo.first)) {
+				// 仍然没有训练好的模型，继续使用原来的基础模型
+				return;
+			}
 			Model baseModel = gameEnv.buildBaseModel();
 			newOpponentModelInfo = new Tuple<>(ConstantParameter.BASE_MODEL_NAME, baseModel);
 		}
-		if (this.opponentModelInfo != null && !this.opponentModelInfo.first.equals(newOpponentModelInfo.first)) {
-			// 清除旧Model的资源占用
-			this.opponentModelInfo.second.close();
+		if (this.opponentModelInfo != null && this.opponentModelInfo.second != newOpponentModelInfo.second) {
+			if (ConstantParameter.BASE_MODEL_NAME.equals(this.opponentModelInfo.first)) {
+				// 基础模型不在模型缓存中，清除其资源占用，使用它的对手智能体一并关闭
+				this.agentPool.retire(this.opponentModelInfo.first);
+				this.opponentModelInfo.second.close();
+			} else {
+				// 训练好的模型留在模型缓存中，再次被选为对手时无需重新加载
+				this.modelCache.release(this.opponentModelInfo.first);
+			}
 		}
 		this.opponentModelInfo = newOpponentModelInfo;
 	}
 
 	/**
-	 * 构建对手
+	 * 从对手智能体池中借出对手，对手模型不变时复用上一局的智能体
 	 */
 	private void setupOpponents() {
 		loadOpponentModelInfo();
@@ -203,13 +552,14 @@ public class SelfPlayEnv implements RlEnv {
 			if (i == agentPlayerId) {
 				continue;
 			}
+			String modelName = this.opponentModelInfo.first;
 			Model model = this.opponentModelInfo.second;
-			TrainingConfig config = buildStaticTrainingConfig();
-			Trainer trainer = model.newTrainer(config);
-			trainer.initialize(gameEnv.getObservationShape());
-			trainer.notifyListeners(listener -> listener.onTrainingBegin(trainer));
-			PPO agent = new PPO(manager.newSubManager(), random, trainer);
-			this.agents[i] = agent;
+			this.agents[i] = this.agentPool.borrow(modelName, model, () -> {
+				InferenceAgent.initializeIfNeeded(model, gameEnv.getObservationShape());
+				EvaluationCache.View cacheView = this.evaluationCache.view(modelName, model);
+				return this.opponentAgentType.buildAgent(manager.newSubManager(), random, model,
+						gameEnv.getObservationSlotShape(), cacheView);
+			});
 		}
 	}
 
@@ -233,13 +583,6 @@ public class SelfPlayEnv implements RlEnv {
 		return this.agents[curPlayerId];
 	}
 
-	/**
-	 * @return 构建并返回静态训练配置，用于构建对手Agent的Trainer
-	 */
-	private DefaultTrainingConfig buildStaticTrainingConfig() {
-		return new DefaultTrainingConfig(Loss.l2Loss());
-	}
-
 	/**
 	 * @return 构建并返回动态训练配置，用于构建AI主角的Trainer
 	 */
@@ -251,24 +594,69 @@ public class SelfPlayEnv implements RlEnv {
 						Adam.builder().optLearningRateTracker(Tracker.fixed(CommonParameter.LEARNING_RATE)).build());
 	}
 
-	private void resetBuffer() {
-		if (this.replayBuffer != null) {
-			for (Step step : this.replayBuffer.getBatch()) {
-				if (step != null) {
-					step.close();
-				}
-			}
-		}
+	void resetBuffer() {
+		releaseBuffer(this.replayBuffer);
 		this.curBufferSize = 0;
-		this.replayBuffer = new FixedBuffer(batchSize, replayBufferSize);
+		this.bufferVersionSum = 0;
+		this.bufferMinVersion = 0;
+		this.replayBuffer = this.replayBufferType.build(manager, random, batchSize, replayBufferSize, gameEnv);
+	}
+
+	private void releaseBuffer(ReplayBuffer buffer) {
+		if (buffer != null) {
+			this.replayBufferType.release(buffer);
+		}
 	}
 
 	public BaseBoardGameEnv getGameEnv() {
 		return gameEnv;
 	}
 
+	public EvaluationCache getEvaluationCache() {
+		return evaluationCache;
+	}
+
+	/**
+	 * 用样本容器中的样本训练一次AI主角
+	 */
+	void trainBatch() {
+		trainBatch(this.replayBuffer);
+	}
+
+	private void trainBatch(ReplayBuffer buffer) {
+		this.aiAgent.trainBatch(buffer.getBatch());
+		this.policyVersion++;
+	}
+
+	/**
+	 * @return 样本容器是否已满
+	 */
+	boolean isBufferFull() {
+		return this.curBufferSize >= this.replayBufferSize;
+	}
+
+	Model getAiModel() {
+		return aiModel;
+	}
+
+	OpponentType getOpponentType() {
+		return opponentType;
+	}
+
+	OpponentSampler getOpponentSampler() {
+		return opponentSampler;
+	}
+
 	static final class SelfPlayEnvStep implements RlEnv.Step {
+		/**
+		 * 持有AI主角所采取的行为
+		 */
 		private NDManager manager;
+		/**
+		 * 前后环境状态，与同一局游戏中相邻的样本共用
+		 */
+		private SharedObservation sharedPreObservation;
+		private SharedObservation sharedPostObservation;
 		private NDList preObservation;
 		/**
 		 * 当前AI主角所采取的行为
@@ -278,18 +666,102 @@ public class SelfPlayEnv implements RlEnv {
 		private ActionSpace actionSpace;
 		private float reward;
 		private boolean done;
+		/**
+		 * 生成该样本时AI主角模型参数的版本号
+		 */
+		private long policyVersion;
+		/**
+		 * 样本所在那一局游戏的落子序列，没有记录时为null
+		 */
+		private MoveTrajectory trajectory;
+		/**
+		 * AI主角落子前、对手应对后的步数
+		 */
+		private int prePly;
+		private int postPly;
+		/**
+		 * 环境状态相对于原始样本所做的对称变换
+		 */
+		private DihedralTransform transform;
+
+		/**
+		 * 样本接管调用方对前后环境状态各自持有的一个引用，关闭样本时释放
+		 */
+		SelfPlayEnvStep(NDManager manager, SharedObservation preObservation, NDList agentAction, SharedObservation postObservation, ActionSpace actionSpace, float reward, boolean done, long policyVersion) {
+			this(manager, preObservation, agentAction, postObservation, actionSpace, reward, done, policyVersion, DihedralTransform.IDENTITY);
+		}
 
-		private SelfPlayEnvStep(NDManager manager, NDList preObservation, NDList agentAction, NDList postObservation, ActionSpace actionSpace, float reward, boolean done) {
+		private SelfPlayEnvStep(NDManager manager, SharedObservation preObservation, NDList agentAction, SharedObservation postObservation, ActionSpace actionSpace, float reward, boolean done, long policyVersion, DihedralTransform transform) {
 			this.manager = manager;
-			this.preObservation = preObservation;
-			this.preObservation.attach(this.manager);
+			this.sharedPreObservation = preObservation;
+			this.preObservation = new NDList(preObservation.get(transform));
 			this.agentAction = agentAction;
 			this.agentAction.attach(this.manager);
-			this.postObservation = postObservation;
-			this.postObservation.attach(this.manager);
+			this.sharedPostObservation = postObservation;
+			this.postObservation = new NDList(postObservation.get(transform));
 			this.actionSpace = actionSpace;
 			this.reward = reward;
 			this.done = done;
+			this.policyVersion = policyVersion;
+			this.transform = transform;
+		}
+
+		/**
+		 * 构建该样本在对称变换下的副本，环境状态与动作索引一并变换，收益与终局标志不变。
+		 * 副本与原样本共用前后环境状态，变换后的环境状态也由相邻样本共用。
+		 *
+		 * @param manager    副本所用的管理器
+		 * @param transform  对称变换
+		 * @param gridLength 棋盘长宽
+		 * @return 变换后的样本
+		 */
+		private SelfPlayEnvStep transform(NDManager manager, DihedralTransform transform, int gridLength) {
+			Validate.validState(this.transform == DihedralTransform.IDENTITY, "不支持对变换后的样本再次变换！！");
+			NDArray action = this.agentAction.singletonOrThrow();
+			int[] mappedAction = {transform.mapSquare(action.getInt(), gridLength)};
+			NDList transformedAction = new NDList(manager.create(mappedAction, action.getShape()));
+			SelfPlayEnvStep result = new SelfPlayEnvStep(manager,
+					this.sharedPreObservation.retain(),
+					transformedAction,
+					this.sharedPostObservation.retain(),
+					this.actionSpace,
+					this.reward,
+					this.done,
+					this.policyVersion,
+					transform);
+			if (this.trajectory != null) {
+				result.setTrajectory(this.trajectory, this.prePly, this.postPly);
+			}
+			return result;
+		}
+
+		/**
+		 * 记录样本在落子序列中的位置，供{@link MoveListReplayBuffer}重建环境状态
+		 *
+		 * @param trajectory 样本所在那一局游戏的落子序列
+		 * @param prePly     AI主角落子前的步数
+		 * @param postPly    对手应对后的步数
+		 */
+		void setTrajectory(MoveTrajectory trajectory, int prePly, int postPly) {
+			this.trajectory = trajectory;
+			this.prePly = prePly;
+			this.postPly = postPly;
+		}
+
+		MoveTrajectory getTrajectory() {
+			return trajectory;
+		}
+
+		int getPrePly() {
+			return prePly;
+		}
+
+		int getPostPly() {
+			return postPly;
+		}
+
+		DihedralTransform getTransform() {
+			return transform;
 		}
 
 		@Override
@@ -322,9 +794,15 @@ public class SelfPlayEnv implements RlEnv {
 			return done;
 		}
 
+		public long getPolicyVersion() {
+			return policyVersion;
+		}
+
 		@Override
 		public void close() {
 			this.manager.close();
+			this.sharedPreObservation.release();
+			this.sharedPostObservation.release();
 		}
 	}
 
@@ -0,0 +1,73 @@
+package mo.boardgame.game;
+
+import ai.djl.ndarray.NDArray;
+import ai.djl.ndarray.NDList;
+import ai.djl.ndarray.NDManager;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * 被多个样本共用的环境状态，按引用计数释放。
+ * 同一局游戏中，AI主角一个样本的后环境状态就是其下一个样本的前环境状态，两个样本共用一个实例，样本容器中的环境状态因此约减少一半。
+ * 对称变换后的环境状态按需构建并缓存，相邻样本的同一变换也只保存一份。
+ * 可由多个线程共用。
+ *
+ * @author Caojunqi
+ * @date 2022-01-25 15:00
+ */
+final class SharedObservation {
+
+	private final NDManager manager;
+	/**
+	 * 各对称变换下的环境状态，按{@link DihedralTransform#ordinal()}索引，尚未构建时为null
+	 */
+	private final NDArray[] views = new NDArray[DihedralTransform.all().length];
+	private int refCount = 1;
+
+	/**
+	 * 创建后持有一个引用
+	 *
+	 * @param manager     管理器，最后一个引用释放时关闭
+	 * @param observation 环境状态，将被转移到管理器中
+	 */
+	SharedObservation(NDManager manager, NDList observation) {
+		this.manager = manager;
+		NDArray array = observation.singletonOrThrow();
+		array.attach(manager);
+		this.views[DihedralTransform.IDENTITY.ordinal()] = array;
+	}
+
+	/**
+	 * @param transform 对称变换
+	 * @return 该变换下的环境状态，由本实例管理，调用方不可关闭
+	 */
+	synchronized NDArray get(DihedralTransform transform) {
+		Validate.validState(this.refCount > 0, "环境状态已释放！！");
+		NDArray view = this.views[transform.ordinal()];
+		if (view == null) {
+			view = transform.apply(this.views[DihedralTransform.IDENTITY.ordinal()]);
+			this.views[transform.ordinal()] = view;
+		}
+		return view;
+	}
+
+	/**
+	 * 增加一个引用
+	 *
+	 * @return 本实例
+	 */
+	synchronized SharedObservation retain() {
+		Validate.validState(this.refCount > 0, "环境状态已释放！！");
+		this.refCount++;
+		return this;
+	}
+
+	/**
+	 * 释放一个引用，最后一个引用释放时关闭管理器
+	 */
+	synchronized void release() {
+		Validate.validState(this.refCount > 0, "环境状态已释放！！");
+		if (--this.refCount == 0) {
+			this.manager.close();
+		}
+	}
+}
@@ -0,0 +1,420 @@
+package mo.boardgame.game;
+
+import ai.djl.Model;
+import ai.djl.inference.Predictor;
+import ai.djl.modality.rl.env.RlEnv;
+import ai.djl.ndarray.NDList;
+import ai.djl.ndarray.NDManager;
+import ai.djl.ndarray.types.Shape;
+import ai.djl.translate.TranslateException;
+import common.Tuple;
+import mo.boardgame.common.ConstantParameter;
+import org.apache.commons.lang3.Validate;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Consumer;
+
+/**
+ * 向量化的“左右互搏”环境：同时进行N局相互独立的游戏，所有游戏步调一致地推进。
+ * 每一轮中，轮到AI主角的游戏将环境状态拼成一个[N, 通道, 行, 列]的输入，只做一次前向计算，再把落子分发回各局游戏；
+ * 轮到对手的游戏按对手模型分组，每组同样只做一次前向计算。
+ * 补全的样本先按局暂存，一局游戏结束时才按先后顺序整局交给调用方存放，保证样本容器中每局游戏的样本连续，随后立即重新开局。
+ * 双方都按策略网络输出的概率采样落子，对手只支持{@link AgentType#POLICY}。
+ *
+ * @author Caojunqi
+ * @date 2022-01-23 10:30
+ */
+public final class VectorSelfPlayEnv implements AutoCloseable {
+
+	private final NDManager manager;
+	private final Random random;
+	/**
+	 * 对手类型
+	 */
+	private final OpponentType opponentType;
+	/**
+	 * 已加载的对手模型
+	 */
+	private final ModelCache modelCache;
+	/**
+	 * 按权重选择对手，并记录AI主角对各对手模型的战绩
+	 */
+	private final OpponentSampler opponentSampler;
+	private final Slot[] slots;
+	private final Shape slotShape;
+	private final int slotSize;
+	private final int actionNum;
+	/**
+	 * AI主角的推理器，与训练共用模型参数，训练后无需重建
+	 */
+	private final Predictor<FloatBuffer, PolicyValueTranslator.Output> aiPredictor;
+	/**
+	 * 对手模型 -> 推理器，没有游戏再使用该模型时关闭
+	 */
+	private final Map<Model, Predictor<FloatBuffer, PolicyValueTranslator.Output>> opponentPredictors = new IdentityHashMap<>();
+	/**
+	 * 预分配的网络输入缓冲区，容纳所有游戏的环境状态
+	 */
+	private final FloatBuffer inputBuffer;
+	/**
+	 * 预分配的落子概率
+	 */
+	private final float[] weights;
+	/**
+	 * 还没有训练好的模型时，所有游戏共用的基础模型
+	 */
+	private Tuple<String, Model> baseModelInfo;
+	/**
+	 * AI主角模型参数的版本号，记录在生成的样本中
+	 */
+	private long policyVersion;
+
+	private int episodeCount;
+	private float episodeReward;
+
+	/**
+	 * @param manager         矩阵资源管理器
+	 * @param random          随机数生成器
+	 * @param gameEnv         游戏，各局游戏由它复制而来
+	 * @param aiModel         AI主角所用的模型
+	 * @param opponentType    对手类型
+	 * @param modelCache      已加载的对手模型
+	 * @param opponentSampler 按权重选择对手的采样器
+	 * @param numEnvs         同时进行的游戏局数
+	 */
+	public VectorSelfPlayEnv(NDManager manager,
+							 Random random,
+							 BaseBoardGameEnv gameEnv,
+							 Model aiModel,
+							 OpponentType opponentType,
+							 ModelCache modelCache,
+							 OpponentSampler opponentSampler,
+							 int numEnvs) {
+		Validate.isTrue(numEnvs > 0, "游戏局数必须为正！！numEnvs:%d", numEnvs);
+		this.manager = manager;
+		this.random = random;
+		this.opponentType = opponentType;
+		this.modelCache = modelCache;
+		this.opponentSampler = opponentSampler;
+		this.slotShape = gameEnv.getObservationSlotShape();
+		this.slotSize = (int) this.slotShape.size();
+		this.actionNum = gameEnv.getActionNum();
+		this.aiPredictor = aiModel.newPredictor(new PolicyValueTranslator(this.slotShape));
+		this.inputBuffer = ByteBuffer.allocateDirect(numEnvs * this.slotSize * Float.BYTES)
+				.order(ByteOrder.nativeOrder())
+				.asFloatBuffer();
+		this.weights = new float[this.actionNum];
+		this.slots = new Slot[numEnvs];
+		for (int i = 0; i < numEnvs; i++) {
+			this.slots[i] = new Slot(gameEnv.fork(manager.newSubManager(), random));
+			resetSlot(this.slots[i]);
+		}
+	}
+
+	/**
+	 * 所有游戏步调一致地推进一轮：先是轮到AI主角的游戏，再是轮到对手的游戏
+	 *
+	 * @param sink 接收结束的一局游戏中AI主角的全部样本，按先后顺序排列，样本的资源由接收方负责释放
+	 */
+	public void step(Consumer<List<SelfPlayEnv.SelfPlayEnvStep>> sink) {
+		stepAi(sink);
+		stepOpponents(sink);
+	}
+
+	/**
+	 * 清零结束局数与收益的统计
+	 */
+	public void resetStatistics() {
+		this.episodeCount = 0;
+		this.episodeReward = 0;
+	}
+
+	/**
+	 * 所有轮到AI主角的游戏各落一子
+	 */
+	private void stepAi(Consumer<List<SelfPlayEnv.SelfPlayEnvStep>> sink) {
+		List<Slot> batch = new ArrayList<>(this.slots.length);
+		for (Slot slot : this.slots) {
+			if (slot.gameEnv.getCurPlayerId() == slot.agentPlayerId) {
+				batch.add(slot);
+			}
+		}
+		if (batch.isEmpty()) {
+			return;
+		}
+		float[] logPolicy = predict(this.aiPredictor, batch);
+		for (int i = 0; i < batch.size(); i++) {
+			Slot slot = batch.get(i);
+			int move = sampleMove(slot.gameEnv, logPolicy, i * this.actionNum);
+			NDManager stepManager = this.manager.newSubManager();
+			slot.pendingPrePly = slot.gameEnv.getMoveCount();
+			RlEnv.Step step = slot.gameEnv.step(new NDList(stepManager.create(move)), true);
+			slot.pendingManager = stepManager;
+			slot.pendingPolicyVersion = this.policyVersion;
+			if (slot.nextPreObservation != null) {
+				// 沿用上一个样本的后环境状态
+				slot.pendingPreObservation = slot.nextPreObservation;
+				slot.nextPreObservation = null;
+			} else {
+				// 前环境状态借用游戏环境复用的NDArray，需拷贝后才能长期持有
+				slot.pendingPreObservation = new SharedObservation(this.manager.newSubManager(),
+						new NDList(step.getPreObservation().singletonOrThrow().duplicate()));
+			}
+			slot.pendingAction = step.getAction();
+			slot.pendingAction.attach(stepManager);
+			if (step.isDone()) {
+				finishStep(slot, step, sink);
+			}
+			step.close();
+		}
+	}
+
+	/**
+	 * 所有轮到对手的游戏各落一子，使用同一对手模型的游戏合为一批
+	 */
+	private void stepOpponents(Consumer<List<SelfPlayEnv.SelfPlayEnvStep>> sink) {
+		Map<Model, List<Slot>> batches = new IdentityHashMap<>();
+		for (Slot slot : this.slots) {
+			if (slot.gameEnv.getCurPlayerId() != slot.agentPlayerId) {
+				batches.computeIfAbsent(slot.opponentModelInfo.second, k -> new ArrayList<>()).add(slot);
+			}
+		}
+		for (Map.Entry<Model, List<Slot>> entry : batches.entrySet()) {
+			List<Slot> batch = entry.getValue();
+			float[] logPolicy = predict(this.opponentPredictors.get(entry.getKey()), batch);
+			for (int i = 0; i < batch.size(); i++) {
+				Slot slot = batch.get(i);
+				int move = sampleMove(slot.gameEnv, logPolicy, i * this.actionNum);
+				// 对手的行为不进入样本，随这一步一起释放
+				try (NDManager stepManager = this.manager.newSubManager()) {
+					RlEnv.Step step = slot.gameEnv.step(new NDList(stepManager.create(move)), true);
+					if (slot.pendingManager != null
+							&& (step.isDone() || slot.gameEnv.getCurPlayerId() == slot.agentPlayerId)) {
+						finishStep(slot, step, sink);
+					}
+					step.close();
+				}
+			}
+		}
+	}
+
+	/**
+	 * 用对手落子后的环境状态补全AI主角的样本，游戏结束时交出整局的样本并重新开局
+	 *
+	 * @param slot 游戏
+	 * @param step 补全样本的最后一步
+	 * @param sink 接收结束的一局游戏的样本
+	 */
+	private void finishStep(Slot slot, RlEnv.Step step, Consumer<List<SelfPlayEnv.SelfPlayEnvStep>> sink) {
+		float reward = step.getReward().flatten().toFloatArray()[slot.agentPlayerId];
+		SharedObservation postObservation = new SharedObservation(this.manager.newSubManager(), step.getPostObservation());
+		if (!step.isDone()) {
+			slot.nextPreObservation = postObservation.retain();
+		}
+		SelfPlayEnv.SelfPlayEnvStep selfPlayStep = new SelfPlayEnv.SelfPlayEnvStep(slot.pendingManager,
+				slot.pendingPreObservation,
+				slot.pendingAction,
+				postObservation,
+				step.getPostActionSpace(),
+				reward,
+				step.isDone(),
+				slot.pendingPolicyVersion);
+		slot.trajectory.sync(slot.gameEnv);
+		selfPlayStep.setTrajectory(slot.trajectory, slot.pendingPrePly, slot.trajectory.getPly());
+		slot.pendingManager = null;
+		slot.pendingPreObservation = null;
+		slot.pendingAction = null;
+		slot.episode.add(selfPlayStep);
+		if (step.isDone()) {
+			List<SelfPlayEnv.SelfPlayEnvStep> episode = slot.episode;
+			slot.episode = new ArrayList<>();
+			sink.accept(episode);
+			this.opponentSampler.recordResult(slot.opponentModelInfo.first, reward);
+			this.episodeCount++;
+			this.episodeReward += reward;
+			resetSlot(slot);
+		}
+	}
+
+	/**
+	 * 重新开局：随机分配AI主角的位置，按对手类型重新选择对手模型
+	 */
+	private void resetSlot(Slot slot) {
+		slot.gameEnv.reset();
+		slot.trajectory = new MoveTrajectory();
+		if (slot.nextPreObservation != null) {
+			slot.nextPreObservation.release();
+			slot.nextPreObservation = null;
+		}
+		slot.agentPlayerId = this.random.nextInt(slot.gameEnv.getPlayerNum());
+
+		Tuple<String, Model> oldModelInfo = slot.opponentModelInfo;
+		Tuple<String, Model> newModelInfo = this.opponentType.buildModel(slot.gameEnv, oldModelInfo, this.modelCache, this.opponentSampler);
+		if (newModelInfo == null) {
+			newModelInfo = getBaseModelInfo(slot.gameEnv);
+		}
+		slot.opponentModelInfo = newModelInfo;
+		if (!this.opponentPredictors.containsKey(newModelInfo.second)) {
+			InferenceAgent.initializeIfNeeded(newModelInfo.second, slot.gameEnv.getObservationShape());
+			this.opponentPredictors.put(newModelInfo.second, newModelInfo.second.newPredictor(new PolicyValueTranslator(this.slotShape)));
+		}
+		if (oldModelInfo != null && oldModelInfo.second != newModelInfo.second) {
+			releaseOpponentModel(oldModelInfo);
+		}
+	}
+
+	/**
+	 * 换下对手模型，没有游戏再使用该模型时关闭其推理器；基础模型留到环境关闭时释放
+	 */
+	private void releaseOpponentModel(Tuple<String, Model> modelInfo) {
+		if (modelInfo == this.baseModelInfo) {
+			return;
+		}
+		this.modelCache.release(modelInfo.first);
+		for (Slot slot : this.slots) {
+			if (slot != null && slot.opponentModelInfo != null && slot.opponentModelInfo.second == modelInfo.second) {
+				return;
+			}
+		}
+		Predictor<FloatBuffer, PolicyValueTranslator.Output> predictor = this.opponentPredictors.remove(modelInfo.second);
+		if (predictor != null) {
+			predictor.close();
+		}
+	}
+
+	private Tuple<String, Model> getBaseModelInfo(BaseBoardGameEnv gameEnv) {
+		if (this.baseModelInfo == null) {
+			this.baseModelInfo = new Tuple<>(ConstantParameter.BASE_MODEL_NAME, gameEnv.buildBaseModel());
+		}
+		return this.baseModelInfo;
+	}
+
+	/**
+	 * @return 这批游戏各落子的对数概率，按[批量, 行为]展开
+	 */
+	private float[] predict(Predictor<FloatBuffer, PolicyValueTranslator.Output> predictor, List<Slot> batch) {
+		FloatBuffer buffer = this.inputBuffer;
+		buffer.clear();
+		for (Slot slot : batch) {
+			slot.gameEnv.writeObservation(buffer);
+		}
+		buffer.flip();
+		try {
+			return predictor.predict(buffer).getLogPolicy();
+		} catch (TranslateException e) {
+			throw new IllegalStateException("模型推理失败！！", e);
+		}
+	}
+
+	/**
+	 * 在合法落子中按策略概率采样
+	 */
+	private int sampleMove(BaseBoardGameEnv gameEnv, float[] logPolicy, int offset) {
+		for (int i = 0; i < this.actionNum; i++) {
+			this.weights[i] = gameEnv.isLegal(i) ? (float) Math.exp(logPolicy[offset + i]) : 0;
+		}
+		return MathUtils.sampleIndex(this.random, this.weights);
+	}
+
+	/**
+	 * AI主角的模型参数更新后调用，此后生成的样本记录新的版本号
+	 *
+	 * @param policyVersion 模型参数的版本号
+	 */
+	public void setPolicyVersion(long policyVersion) {
+		this.policyVersion = policyVersion;
+	}
+
+	/**
+	 * @return 上次清零统计以来结束的游戏局数
+	 */
+	public int getEpisodeCount() {
+		return episodeCount;
+	}
+
+	/**
+	 * @return 上次清零统计以来结束的游戏里，AI主角的总收益
+	 */
+	public float getEpisodeReward() {
+		return episodeReward;
+	}
+
+	public int getNumEnvs() {
+		return this.slots.length;
+	}
+
+	@Override
+	public void close() {
+		for (Slot slot : this.slots) {
+			if (slot.pendingManager != null) {
+				slot.pendingManager.close();
+				slot.pendingPreObservation.release();
+			}
+			if (slot.nextPreObservation != null) {
+				slot.nextPreObservation.release();
+			}
+			for (SelfPlayEnv.SelfPlayEnvStep step : slot.episode) {
+				step.close();
+			}
+			if (slot.opponentModelInfo != null && slot.opponentModelInfo != this.baseModelInfo) {
+				this.modelCache.release(slot.opponentModelInfo.first);
+			}
+			slot.gameEnv.close();
+		}
+		for (Predictor<FloatBuffer, PolicyValueTranslator.Output> predictor : this.opponentPredictors.values()) {
+			predictor.close();
+		}
+		this.opponentPredictors.clear();
+		this.aiPredictor.close();
+		if (this.baseModelInfo != null) {
+			this.baseModelInfo.second.close();
+		}
+		this.manager.close();
+	}
+
+	/**
+	 * 一局游戏及AI主角尚未补全的样本
+	 */
+	private static final class Slot {
+		private final BaseBoardGameEnv gameEnv;
+		private int agentPlayerId;
+		private Tuple<String, Model> opponentModelInfo;
+		/**
+		 * AI主角落子后、对手应对前，样本的行为由该管理器持有
+		 */
+		private NDManager pendingManager;
+		private SharedObservation pendingPreObservation;
+		private NDList pendingAction;
+		/**
+		 * AI主角下一个样本的前环境状态，即上一个样本的后环境状态，与两个样本共用
+		 */
+		private SharedObservation nextPreObservation;
+		/**
+		 * AI主角落子时所用模型参数的版本号
+		 */
+		private long pendingPolicyVersion;
+		/**
+		 * AI主角落子前的步数
+		 */
+		private int pendingPrePly;
+		/**
+		 * 当前这局游戏的落子序列
+		 */
+		private MoveTrajectory trajectory;
+		/**
+		 * 当前这局游戏中已补全的样本，按先后顺序排列
+		 */
+		private List<SelfPlayEnv.SelfPlayEnvStep> episode = new ArrayList<>();
+
+		private Slot(BaseBoardGameEnv gameEnv) {
+			this.gameEnv = gameEnv;
+		}
+	}
+}
@@ -0,0 +1,53 @@
+package mo.boardgame.game;
+
+import java.util.SplittableRandom;
+
+/**
+ * Zobrist随机键表：局面哈希 = 所有棋子对应随机键的异或 ^ 当前行动玩家对应的随机键。
+ * 落子、悔棋、切换行动玩家时只需异或对应的键，即可增量更新局面哈希。
+ * 相同的种子生成相同的键，因此同一游戏的不同环境实例之间，局面哈希可以直接比较。
+ *
+ * @author Caojunqi
+ * @date 2022-01-12 14:20
+ */
+public final class ZobristTable {
+	/**
+	 * 棋子随机键，第一维为玩家索引，第二维为棋盘位置索引
+	 */
+	private final long[][] pieceKeys;
+	/**
+	 * 行动玩家随机键
+	 */
+	private final long[] sideKeys;
+
+	public ZobristTable(int playerNum, int numSquares, long seed) {
+		SplittableRandom random = new SplittableRandom(seed);
+		this.pieceKeys = new long[playerNum][numSquares];
+		for (long[] keys : this.pieceKeys) {
+			for (int i = 0; i < numSquares; i++) {
+				keys[i] = random.nextLong();
+			}
+		}
+		this.sideKeys = new long[playerNum];
+		for (int i = 0; i < playerNum; i++) {
+			this.sideKeys[i] = random.nextLong();
+		}
+	}
+
+	/**
+	 * @param playerId 玩家索引
+	 * @param square   棋盘位置索引
+	 * @return 该玩家在该位置落子对应的随机键
+	 */
+	public long pieceKey(int playerId, int square) {
+		return this.pieceKeys[playerId][square];
+	}
+
+	/**
+	 * @param playerId 玩家索引
+	 * @return 轮到该玩家行动时对应的随机键
+	 */
+	public long sideKey(int playerId) {
+		return this.sideKeys[playerId];
+	}
+}
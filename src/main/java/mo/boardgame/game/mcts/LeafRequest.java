@@ -0,0 +1,136 @@
+package mo.boardgame.game.mcts;
+
+import mo.boardgame.game.BaseBoardGameEnv;
+
+import java.nio.FloatBuffer;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 一个待估值的叶节点：选择阶段记录叶节点局面的环境状态和合法落子，估值完成后写回先验概率和价值
+ *
+ * @author Caojunqi
+ * @date 2022-01-19 10:10
+ */
+final class LeafRequest {
+	/**
+	 * 叶节点局面的环境状态，[通道, 行, 列]
+	 */
+	private final float[] observation;
+	/**
+	 * 估值结果：各落子的先验概率
+	 */
+	private final float[] priors;
+	/**
+	 * 估值结果：站在叶节点局面行动玩家视角的价值
+	 */
+	private float value;
+	private MctsNode leaf;
+	private int[] legalMoves;
+	/**
+	 * 叶节点局面的哈希
+	 */
+	private long positionKey;
+	/**
+	 * 叶节点环境状态的估值缓存键
+	 */
+	private long evaluationKey;
+	/**
+	 * 置换表查询结果，与本请求共用先验概率数组
+	 */
+	private final TranspositionTable.Entry cached;
+	/**
+	 * 估值完成信号，并行搜索时由估值线程完成，保证估值结果对搜索线程可见
+	 */
+	private CompletableFuture<Void> result;
+
+	LeafRequest(int observationSize, int actionNum) {
+		this.observation = new float[observationSize];
+		this.priors = new float[actionNum];
+		this.cached = new TranspositionTable.Entry(this.priors);
+	}
+
+	/**
+	 * 记录叶节点及环境当前局面，可重复使用
+	 *
+	 * @param leaf 叶节点
+	 * @param env  处于叶节点局面的游戏环境
+	 */
+	void capture(MctsNode leaf, BaseBoardGameEnv env) {
+		this.leaf = leaf;
+		env.writeObservation(FloatBuffer.wrap(this.observation));
+		this.legalMoves = MctsNode.collectLegalMoves(env);
+		this.positionKey = env.getPositionHash();
+		this.evaluationKey = env.getEvaluationKey();
+		this.result = new CompletableFuture<>();
+	}
+
+	/**
+	 * 在置换表中查找叶节点局面，命中时直接以表中的先验概率和平均价值完成估值
+	 *
+	 * @param table 置换表，为null时总是未命中
+	 * @return 是否命中
+	 */
+	boolean completeFromTable(TranspositionTable table) {
+		if (table == null || !table.probe(this.positionKey, this.cached)) {
+			return false;
+		}
+		complete(this.cached.getMeanValue());
+		return true;
+	}
+
+	/**
+	 * 将网络估值结果写入置换表，记为一次访问
+	 *
+	 * @param table 置换表，为null时忽略
+	 * @param value 站在叶节点局面行动玩家视角的价值
+	 */
+	void record(TranspositionTable table, float value) {
+		if (table != null) {
+			table.store(this.positionKey, 1, 1, value, this.priors);
+		}
+	}
+
+	void complete(float value) {
+		this.value = value;
+		this.result.complete(null);
+	}
+
+	void fail(Throwable cause) {
+		this.result.completeExceptionally(cause);
+	}
+
+	/**
+	 * 阻塞直到估值完成
+	 */
+	void await() {
+		this.result.join();
+	}
+
+	float[] getObservation() {
+		return observation;
+	}
+
+	float[] getPriors() {
+		return priors;
+	}
+
+	float getValue() {
+		return value;
+	}
+
+	MctsNode getLeaf() {
+		return leaf;
+	}
+
+	int[] getLegalMoves() {
+		return legalMoves;
+	}
+
+	long getPositionKey() {
+		return positionKey;
+	}
+
+	long getEvaluationKey() {
+		return evaluationKey;
+	}
+}
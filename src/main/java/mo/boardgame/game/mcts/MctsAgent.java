@@ -0,0 +1,403 @@
+package mo.boardgame.game.mcts;
+
+import ai.djl.Model;
+import ai.djl.modality.rl.env.RlEnv;
+import ai.djl.ndarray.NDList;
+import ai.djl.ndarray.NDManager;
+import algorithm.RlAgentCloseable;
+import mo.boardgame.game.BaseBoardGameEnv;
+import mo.boardgame.game.BoardGameState;
+import mo.boardgame.game.EvaluationCache;
+import mo.boardgame.game.MathUtils;
+import org.apache.commons.lang3.Validate;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * AlphaZero式的蒙特卡洛树搜索智能体：以策略网络输出的合法落子对数概率作为先验，以价值网络输出作为叶节点估值，
+ * 按PUCT公式进行模拟，最终根据根节点各子节点的访问次数落子。
+ * 搜索在私有的环境副本上通过{@link BaseBoardGameEnv#play(int)}/{@link BaseBoardGameEnv#undo()}进行，不影响真实的游戏环境。
+ * 配置了多线程或批量估值时，由{@link ParallelMctsSearch}在虚拟损失下并行搜索，叶节点攒批后统一估值。
+ * 每步搜索后保留搜索树，下一步沿实际发生的落子找到对应子树作为新的根节点继续搜索；
+ * 还可以在对手思考期间通过{@link #ponder(BaseBoardGameEnv)}继续在后台搜索。
+ * 配置了置换表时，叶节点局面命中置换表则直接复用其先验概率和平均价值；每步搜索后把搜索树上的统计数据写回置换表，
+ * 使经不同落子顺序到达的相同局面共享此前的搜索结果。
+ *
+ * @author Caojunqi
+ * @date 2022-01-18 11:00
+ */
+public class MctsAgent implements RlAgentCloseable {
+	/**
+	 * 后台思考的模拟次数上限是每步模拟次数的多少倍
+	 */
+	private static final int PONDER_SIMULATION_FACTOR = 10;
+	/**
+	 * 只限时不限次数时，后台思考的根节点访问次数上限
+	 */
+	private static final int MAX_PONDER_VISITS = 100_000;
+	/**
+	 * 访问次数达到该值的节点才会在搜索后写回置换表，只访问过一次的叶节点在估值时已经写入
+	 */
+	private static final int MIN_WRITE_BACK_VISITS = 2;
+
+	private NDManager manager;
+	private Random random;
+	/**
+	 * 策略价值网络模型，只用于推理
+	 */
+	private Model model;
+	/**
+	 * 估值缓存，为null时不缓存
+	 */
+	private EvaluationCache.View evaluationCache;
+	private MctsConfig config;
+	/**
+	 * 私有的搜索环境，每次选择落子前恢复到真实环境的局面
+	 */
+	private BaseBoardGameEnv searchEnv;
+	private PolicyValueEvaluator evaluator;
+	/**
+	 * 置换表，未配置时为null
+	 */
+	private TranspositionTable table;
+	/**
+	 * 写回置换表时复用的临时条目
+	 */
+	private TranspositionTable.Entry tableEntry;
+	/**
+	 * 单线程搜索时复用的估值请求
+	 */
+	private LeafRequest request;
+	private List<LeafRequest> requestBatch;
+	/**
+	 * 并行搜索，单线程逐个估值时为null
+	 */
+	private ParallelMctsSearch parallelSearch;
+	/**
+	 * 上一次搜索的根节点，用于复用子树
+	 */
+	private MctsNode root;
+	/**
+	 * 上一次搜索的根节点局面
+	 */
+	private BoardGameState rootState;
+	/**
+	 * 后台思考线程，首次后台思考时创建
+	 */
+	private ExecutorService ponderExecutor;
+	private Future<?> ponderFuture;
+	/**
+	 * 是否要求后台思考停止
+	 */
+	private volatile boolean ponderStopped;
+
+	public MctsAgent(NDManager manager, Random random, Model model, EvaluationCache.View evaluationCache, MctsConfig config) {
+		this.manager = manager;
+		this.random = random;
+		this.model = model;
+		this.evaluationCache = evaluationCache;
+		this.config = config;
+	}
+
+	@Override
+	public NDList chooseAction(RlEnv env, boolean training) {
+		Validate.isInstanceOf(BaseBoardGameEnv.class, env, "蒙特卡洛树搜索只支持棋类游戏环境！！");
+		BaseBoardGameEnv gameEnv = (BaseBoardGameEnv) env;
+		Validate.isTrue(gameEnv.getPlayerNum() == 2, "蒙特卡洛树搜索只支持双人游戏！！");
+		Validate.validState(!gameEnv.isDone(), "棋局已结束，不能继续落子！！");
+		stopPondering();
+		prepareSearchEnv(gameEnv);
+		MctsNode root = search(gameEnv, training);
+		writeBack(root);
+		int move = selectMove(root, training);
+		return new NDList(this.manager.create(move));
+	}
+
+	/**
+	 * 在对手思考期间于后台继续搜索当前局面，直到对手落子后调用{@link #chooseAction(RlEnv, boolean)}或{@link #stopPondering()}。
+	 * 搜索只使用私有的环境副本，调用方可以继续读取真实环境。
+	 *
+	 * @param gameEnv 真实的游戏环境，此时应轮到对手行动
+	 */
+	public void ponder(BaseBoardGameEnv gameEnv) {
+		stopPondering();
+		if (gameEnv.isDone()) {
+			return;
+		}
+		prepareSearchEnv(gameEnv);
+		if (this.table != null) {
+			this.table.newSearch();
+		}
+		MctsNode ponderRoot = prepareRoot(gameEnv);
+		int visitLimit = this.config.getSimulationNum() > 0
+				? this.config.getSimulationNum() * PONDER_SIMULATION_FACTOR : MAX_PONDER_VISITS;
+		if (this.ponderExecutor == null) {
+			this.ponderExecutor = Executors.newSingleThreadExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "mcts-ponder");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		this.ponderStopped = false;
+		this.ponderFuture = this.ponderExecutor.submit(() -> {
+			int simulationNum = visitLimit - ponderRoot.getVisitCount();
+			if (this.parallelSearch != null) {
+				this.parallelSearch.run(ponderRoot, this.rootState, simulationNum, Long.MAX_VALUE, () -> this.ponderStopped);
+				return;
+			}
+			for (int i = 0; i < simulationNum && !this.ponderStopped; i++) {
+				simulate(ponderRoot);
+			}
+		});
+	}
+
+	/**
+	 * 停止后台思考，并等待后台搜索线程退出
+	 */
+	public void stopPondering() {
+		if (this.ponderFuture == null) {
+			return;
+		}
+		this.ponderStopped = true;
+		try {
+			this.ponderFuture.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("等待后台思考结束时被中断！！", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("后台思考异常！！", e.getCause());
+		} finally {
+			this.ponderFuture = null;
+		}
+	}
+
+	/**
+	 * 树搜索智能体所用的模型参数固定，不参与训练，此方法什么也不做。
+	 * 需要训练的模型应交给{@link algorithm.ppo2.PPO}等训练智能体。
+	 */
+	@Override
+	public void trainBatch(RlEnv.Step[] batchSteps) {
+		// 参数固定，不训练
+	}
+
+	@Override
+	public void close() {
+		if (this.ponderExecutor != null) {
+			this.ponderStopped = true;
+			this.ponderExecutor.shutdownNow();
+		}
+		if (this.parallelSearch != null) {
+			this.parallelSearch.close();
+		}
+		if (this.evaluator != null) {
+			this.evaluator.close();
+		}
+		this.manager.close();
+	}
+
+	/**
+	 * 将搜索环境恢复到真实环境的局面，首次使用或游戏类型变化时重新构建
+	 */
+	private void prepareSearchEnv(BaseBoardGameEnv gameEnv) {
+		if (this.searchEnv != null && this.searchEnv.getClass() == gameEnv.getClass()) {
+			this.searchEnv.restore(gameEnv.snapshot());
+			return;
+		}
+		if (this.parallelSearch != null) {
+			this.parallelSearch.close();
+			this.parallelSearch = null;
+		}
+		if (this.searchEnv != null) {
+			this.searchEnv.close();
+			this.evaluator.close();
+		}
+		this.root = null;
+		this.rootState = null;
+		this.searchEnv = gameEnv.fork(this.manager.newSubManager(), this.random);
+		this.evaluator = new PolicyValueEvaluator(this.model, this.evaluationCache, this.searchEnv.getObservationSlotShape(),
+				this.searchEnv.getActionNum(), this.config.getBatchSize());
+		this.request = new LeafRequest(this.evaluator.getSlotSize(), this.evaluator.getActionNum());
+		this.requestBatch = Collections.singletonList(this.request);
+		if (this.config.getTranspositionBits() > 0) {
+			this.table = new TranspositionTable(this.config.getTranspositionBits(), this.evaluator.getActionNum());
+			this.tableEntry = new TranspositionTable.Entry(this.evaluator.getActionNum());
+		}
+		if (this.config.isParallel()) {
+			this.parallelSearch = new ParallelMctsSearch(this.manager, this.random, this.searchEnv, this.config, this.evaluator, this.table);
+		}
+	}
+
+	/**
+	 * 从搜索环境的当前局面出发进行模拟，直到根节点的访问次数达到模拟次数或用完搜索时间，至少模拟一次。
+	 * 复用的子树已有的访问次数计入模拟次数。
+	 *
+	 * @return 搜索树根节点
+	 */
+	private MctsNode search(BaseBoardGameEnv gameEnv, boolean training) {
+		if (this.table != null) {
+			this.table.newSearch();
+		}
+		MctsNode root = prepareRoot(gameEnv);
+		if (training && this.config.getNoiseEpsilon() > 0) {
+			root.addDirichletNoise(this.random, this.config.getDirichletAlpha(), this.config.getNoiseEpsilon());
+		}
+		int simulationNum = this.config.getSimulationNum() > 0
+				? Math.max(1, this.config.getSimulationNum() - root.getVisitCount()) : Integer.MAX_VALUE;
+		long deadline = this.config.getTimeBudgetMillis() > 0
+				? System.nanoTime() + this.config.getTimeBudgetMillis() * 1_000_000L : Long.MAX_VALUE;
+		if (this.parallelSearch != null) {
+			this.parallelSearch.run(root, this.rootState, simulationNum, deadline, () -> false);
+			return root;
+		}
+		for (int i = 0; i < simulationNum; i++) {
+			simulate(root);
+			if (System.nanoTime() >= deadline) {
+				break;
+			}
+		}
+		return root;
+	}
+
+	/**
+	 * 准备搜索环境当前局面的根节点：能复用上一次搜索的子树时直接复用，否则新建并估值扩展
+	 *
+	 * @param gameEnv 真实的游戏环境，与搜索环境处于同一局面
+	 * @return 已扩展的根节点
+	 */
+	private MctsNode prepareRoot(BaseBoardGameEnv gameEnv) {
+		MctsNode newRoot = reuseSubtree(gameEnv);
+		if (newRoot == null) {
+			newRoot = new MctsNode(null, -1, 1);
+			evaluate(newRoot);
+			newRoot.expand(this.request.getLegalMoves(), this.request.getPriors(), this.request.getPositionKey());
+		}
+		this.root = newRoot;
+		this.rootState = this.searchEnv.snapshot();
+		return newRoot;
+	}
+
+	/**
+	 * 从上一次搜索的根节点出发，沿此后实际发生的落子向下查找，找到的子树即为当前局面的搜索树
+	 *
+	 * @return 已扩展的子树根节点，落子历史不连续或子树尚未扩展时返回null
+	 */
+	private MctsNode reuseSubtree(BaseBoardGameEnv gameEnv) {
+		MctsNode node = this.root;
+		BoardGameState oldState = this.rootState;
+		if (node == null || oldState.isForfeited() || gameEnv.getMoveCount() < oldState.getMoveCount()) {
+			return null;
+		}
+		for (int i = 0; i < oldState.getMoveCount(); i++) {
+			if (gameEnv.getMove(i) != oldState.getMove(i)) {
+				// 已经不是同一局游戏
+				return null;
+			}
+		}
+		for (int i = oldState.getMoveCount(); i < gameEnv.getMoveCount() && node != null; i++) {
+			node = node.findChild(gameEnv.getMove(i));
+		}
+		if (node == null || !node.isExpanded()) {
+			return null;
+		}
+		node.detach();
+		return node;
+	}
+
+	/**
+	 * 一次模拟：沿PUCT选择到叶节点，扩展并估值，回传价值，最后撤销本次模拟的所有落子
+	 */
+	private void simulate(MctsNode root) {
+		MctsNode node = root;
+		int depth = 0;
+		while (node.isExpanded() && !this.searchEnv.isDone()) {
+			node = node.selectChild(this.config.getCPuct());
+			this.searchEnv.play(node.getMove());
+			depth++;
+		}
+		float value;
+		if (this.searchEnv.isDone()) {
+			value = terminalValue(this.searchEnv);
+		} else {
+			value = evaluate(node);
+			node.expand(this.request.getLegalMoves(), this.request.getPriors(), this.request.getPositionKey());
+		}
+		// value站在叶节点局面的行动玩家视角，而节点价值站在走出这一步的玩家视角
+		node.backup(-value);
+		for (; depth > 0; depth--) {
+			this.searchEnv.undo();
+		}
+	}
+
+	/**
+	 * 评估搜索环境的当前局面，先验概率和合法落子记录在{@link #request}中。
+	 * 置换表命中时直接使用表中的结果，否则调用策略价值网络并写入置换表。
+	 *
+	 * @return 站在当前行动玩家视角的局面价值
+	 */
+	private float evaluate(MctsNode leaf) {
+		this.request.capture(leaf, this.searchEnv);
+		if (this.request.completeFromTable(this.table)) {
+			return this.request.getValue();
+		}
+		float value = this.evaluator.evaluate(this.requestBatch)[0];
+		this.request.record(this.table, value);
+		return value;
+	}
+
+	/**
+	 * 把搜索树上已扩展节点的访问次数和价值总和写回置换表，保留表中原有的先验概率
+	 */
+	private void writeBack(MctsNode root) {
+		if (this.table == null) {
+			return;
+		}
+		Deque<MctsNode> stack = new ArrayDeque<>();
+		stack.push(root);
+		while (!stack.isEmpty()) {
+			MctsNode node = stack.pop();
+			if (!node.isExpanded() || node.getVisitCount() < MIN_WRITE_BACK_VISITS) {
+				continue;
+			}
+			// 节点价值站在走出这一步的玩家视角，置换表站在该局面行动玩家的视角
+			this.table.update(node.getPositionKey(), node.getVisitCount(), node.getVisitCount(), -node.getValueSum(), this.tableEntry);
+			for (MctsNode child : node.getChildren()) {
+				stack.push(child);
+			}
+		}
+	}
+
+	/**
+	 * @return 终局时站在当前行动玩家视角的局面价值：胜1，负-1，平0
+	 */
+	static float terminalValue(BaseBoardGameEnv env) {
+		int winner = env.getWinner();
+		if (winner == BaseBoardGameEnv.NO_WINNER) {
+			return 0;
+		}
+		return winner == env.getCurPlayerId() ? 1 : -1;
+	}
+
+	/**
+	 * 训练时按访问次数的温度幂次采样落子，否则选择访问次数最多的落子
+	 */
+	private int selectMove(MctsNode root, boolean training) {
+		float temperature = this.config.getTemperature();
+		if (!training || temperature <= 0) {
+			return root.getMostVisitedChild().getMove();
+		}
+		MctsNode[] children = root.getChildren();
+		float[] weights = new float[children.length];
+		for (int i = 0; i < children.length; i++) {
+			weights[i] = (float) Math.pow(children[i].getVisitCount(), 1 / temperature);
+		}
+		return children[MathUtils.sampleIndex(this.random, weights)].getMove();
+	}
+}
@@ -0,0 +1,131 @@
+package mo.boardgame.game.mcts;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * 蒙特卡洛树搜索参数
+ *
+ * @author Caojunqi
+ * @date 2022-01-18 10:05
+ */
+public final class MctsConfig {
+	/**
+	 * 默认参数：每步400次模拟，不限时，单线程逐个估值
+	 */
+	public static final MctsConfig DEFAULT = new MctsConfig(400, 0, 1.5f, 1.0f, 0.3f, 0.25f);
+	/**
+	 * 多线程批量估值参数：每步1600次模拟，4个搜索线程，每批最多估值32个叶节点，各线程共享2^14个哈希桶的置换表
+	 */
+	public static final MctsConfig PARALLEL = new MctsConfig(1600, 0, 1.5f, 1.0f, 0.3f, 0.25f, 4, 32, 3, 14);
+
+	/**
+	 * 每步的模拟次数上限，不大于0表示不限次数
+	 */
+	private final int simulationNum;
+	/**
+	 * 每步的搜索时间上限（毫秒），不大于0表示不限时
+	 */
+	private final long timeBudgetMillis;
+	/**
+	 * PUCT公式中探索项的系数
+	 */
+	private final float cPuct;
+	/**
+	 * 训练时按访问次数采样落子的温度，不大于0时总是选择访问次数最多的落子
+	 */
+	private final float temperature;
+	/**
+	 * 训练时根节点先验概率上叠加的狄利克雷噪声的浓度参数
+	 */
+	private final float dirichletAlpha;
+	/**
+	 * 训练时根节点先验概率中噪声所占的比例，为0时不加噪声
+	 */
+	private final float noiseEpsilon;
+	/**
+	 * 搜索线程数，大于1时各线程在虚拟损失下并行选择叶节点
+	 */
+	private final int threadNum;
+	/**
+	 * 一次批量前向计算最多估值的叶节点数
+	 */
+	private final int batchSize;
+	/**
+	 * 虚拟损失：叶节点等待估值期间，其搜索路径上的节点临时记为输了这么多次，使其他线程倾向于选择别的路径
+	 */
+	private final int virtualLoss;
+	/**
+	 * 置换表哈希桶数的对数，为0时不使用置换表
+	 */
+	private final int transpositionBits;
+
+	public MctsConfig(int simulationNum, long timeBudgetMillis, float cPuct, float temperature, float dirichletAlpha, float noiseEpsilon) {
+		this(simulationNum, timeBudgetMillis, cPuct, temperature, dirichletAlpha, noiseEpsilon, 1, 1, 0, 0);
+	}
+
+	public MctsConfig(int simulationNum, long timeBudgetMillis, float cPuct, float temperature, float dirichletAlpha, float noiseEpsilon,
+					  int threadNum, int batchSize, int virtualLoss, int transpositionBits) {
+		Validate.isTrue(simulationNum > 0 || timeBudgetMillis > 0, "模拟次数与搜索时间不能都不限制！！");
+		Validate.isTrue(noiseEpsilon >= 0 && noiseEpsilon <= 1, "噪声比例必须在[0, 1]之间！！noiseEpsilon:%f", noiseEpsilon);
+		Validate.isTrue(threadNum > 0 && batchSize > 0, "搜索线程数和批量大小必须为正！！threadNum:%d, batchSize:%d", threadNum, batchSize);
+		Validate.isTrue(virtualLoss >= 0, "虚拟损失不能为负！！virtualLoss:%d", virtualLoss);
+		Validate.isTrue(transpositionBits >= 0, "置换表大小不能为负！！transpositionBits:%d", transpositionBits);
+		this.simulationNum = simulationNum;
+		this.timeBudgetMillis = timeBudgetMillis;
+		this.cPuct = cPuct;
+		this.temperature = temperature;
+		this.dirichletAlpha = dirichletAlpha;
+		this.noiseEpsilon = noiseEpsilon;
+		this.threadNum = threadNum;
+		this.batchSize = batchSize;
+		this.virtualLoss = virtualLoss;
+		this.transpositionBits = transpositionBits;
+	}
+
+	/**
+	 * @return 是否需要多线程或批量估值
+	 */
+	public boolean isParallel() {
+		return this.threadNum > 1 || this.batchSize > 1;
+	}
+
+	public int getSimulationNum() {
+		return simulationNum;
+	}
+
+	public long getTimeBudgetMillis() {
+		return timeBudgetMillis;
+	}
+
+	public float getCPuct() {
+		return cPuct;
+	}
+
+	public float getTemperature() {
+		return temperature;
+	}
+
+	public float getDirichletAlpha() {
+		return dirichletAlpha;
+	}
+
+	public float getNoiseEpsilon() {
+		return noiseEpsilon;
+	}
+
+	public int getThreadNum() {
+		return threadNum;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public int getVirtualLoss() {
+		return virtualLoss;
+	}
+
+	public int getTranspositionBits() {
+		return transpositionBits;
+	}
+}
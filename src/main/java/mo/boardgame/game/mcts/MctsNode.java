@@ -0,0 +1,239 @@
+package mo.boardgame.game.mcts;
+
+import mo.boardgame.game.BaseBoardGameEnv;
+import mo.boardgame.game.MathUtils;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * 搜索树节点，对应一步落子。
+ * 节点的价值始终站在“走出这一步的玩家”的视角，父节点据此直接比较各子节点。
+ *
+ * @author Caojunqi
+ * @date 2022-01-18 10:20
+ */
+final class MctsNode {
+	/**
+	 * 父节点，根节点为null
+	 */
+	private MctsNode parent;
+	/**
+	 * 到达该节点的落子位置，根节点为-1
+	 */
+	private final int move;
+	/**
+	 * 策略网络给出的先验概率
+	 */
+	private float prior;
+	/**
+	 * 子节点，尚未扩展时为null
+	 */
+	private MctsNode[] children;
+	private int visitCount;
+	private float valueSum;
+	/**
+	 * 该节点局面的哈希，扩展时记录，用于把统计数据写回置换表
+	 */
+	private long positionKey;
+	/**
+	 * 是否正在等待策略价值网络估值，并行搜索时用于识别多个线程选中同一叶节点的冲突
+	 */
+	private boolean evaluating;
+
+	MctsNode(MctsNode parent, int move, float prior) {
+		this.parent = parent;
+		this.move = move;
+		this.prior = prior;
+	}
+
+	boolean isExpanded() {
+		return this.children != null;
+	}
+
+	/**
+	 * 为当前局面的每个合法落子创建子节点，先验概率在合法落子上重新归一化
+	 *
+	 * @param env    处于该节点局面的游戏环境
+	 * @param priors 策略网络输出的各落子概率，长度为行为空间大小
+	 */
+	void expand(BaseBoardGameEnv env, float[] priors) {
+		expand(collectLegalMoves(env), priors, env.getPositionHash());
+	}
+
+	/**
+	 * 为给定的每个合法落子创建子节点，先验概率在合法落子上重新归一化
+	 *
+	 * @param legalMoves  该节点局面下的所有合法落子
+	 * @param priors      策略网络输出的各落子概率，长度为行为空间大小
+	 * @param positionKey 该节点局面的哈希
+	 */
+	void expand(int[] legalMoves, float[] priors, long positionKey) {
+		float totalPrior = 0;
+		for (int move : legalMoves) {
+			totalPrior += priors[move];
+		}
+		MctsNode[] newChildren = new MctsNode[legalMoves.length];
+		for (int i = 0; i < legalMoves.length; i++) {
+			int move = legalMoves[i];
+			float prior = totalPrior > 0 ? priors[move] / totalPrior : 1f / legalMoves.length;
+			newChildren[i] = new MctsNode(this, move, prior);
+		}
+		this.positionKey = positionKey;
+		this.children = newChildren;
+	}
+
+	/**
+	 * @return 环境当前局面下的所有合法落子
+	 */
+	static int[] collectLegalMoves(BaseBoardGameEnv env) {
+		int actionNum = env.getActionNum();
+		int[] moves = new int[actionNum];
+		int legalNum = 0;
+		for (int i = 0; i < actionNum; i++) {
+			if (env.isLegal(i)) {
+				moves[legalNum++] = i;
+			}
+		}
+		return legalNum == actionNum ? moves : Arrays.copyOf(moves, legalNum);
+	}
+
+	/**
+	 * 在子节点的先验概率上叠加狄利克雷噪声，只用于训练时的根节点，以保证探索
+	 */
+	void addDirichletNoise(Random random, float alpha, float epsilon) {
+		float[] noise = new float[this.children.length];
+		MathUtils.sampleDirichlet(random, alpha, noise);
+		for (int i = 0; i < this.children.length; i++) {
+			MctsNode child = this.children[i];
+			child.prior = (1 - epsilon) * child.prior + epsilon * noise[i];
+		}
+	}
+
+	/**
+	 * 按PUCT公式选择子节点：Q + cPuct * P * sqrt(N) / (1 + n)
+	 */
+	MctsNode selectChild(float cPuct) {
+		float explorationScale = cPuct * (float) Math.sqrt(Math.max(1, this.visitCount));
+		MctsNode best = null;
+		float bestScore = Float.NEGATIVE_INFINITY;
+		for (MctsNode child : this.children) {
+			float score = child.getMeanValue() + explorationScale * child.prior / (1 + child.visitCount);
+			if (score > bestScore) {
+				bestScore = score;
+				best = child;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * 将叶节点的价值沿搜索路径回传到根节点，每上溯一层视角翻转一次
+	 *
+	 * @param value 站在走出该节点这一步的玩家视角的价值
+	 */
+	void backup(float value) {
+		MctsNode node = this;
+		while (node != null) {
+			node.visitCount++;
+			node.valueSum += value;
+			value = -value;
+			node = node.parent;
+		}
+	}
+
+	/**
+	 * @param move 落子位置
+	 * @return 该落子对应的子节点，尚未扩展或不存在时返回null
+	 */
+	MctsNode findChild(int move) {
+		if (this.children == null) {
+			return null;
+		}
+		for (MctsNode child : this.children) {
+			if (child.move == move) {
+				return child;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * 与父节点断开，使该节点成为新的根节点，保留其下的整棵子树及统计数据
+	 */
+	void detach() {
+		this.parent = null;
+	}
+
+	/**
+	 * 在从该节点到根节点的路径上施加虚拟损失
+	 */
+	void applyVirtualLoss(int virtualLoss) {
+		for (MctsNode node = this; node != null; node = node.parent) {
+			node.visitCount += virtualLoss;
+			node.valueSum -= virtualLoss;
+		}
+	}
+
+	/**
+	 * 撤销{@link #applyVirtualLoss(int)}施加的虚拟损失
+	 */
+	void revertVirtualLoss(int virtualLoss) {
+		for (MctsNode node = this; node != null; node = node.parent) {
+			node.visitCount -= virtualLoss;
+			node.valueSum += virtualLoss;
+		}
+	}
+
+	/**
+	 * @return 访问次数最多的子节点
+	 */
+	MctsNode getMostVisitedChild() {
+		MctsNode best = null;
+		for (MctsNode child : this.children) {
+			if (best == null || child.visitCount > best.visitCount) {
+				best = child;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * @return 平均价值，尚未访问时为0
+	 */
+	float getMeanValue() {
+		return this.visitCount == 0 ? 0 : this.valueSum / this.visitCount;
+	}
+
+	int getMove() {
+		return move;
+	}
+
+	float getPrior() {
+		return prior;
+	}
+
+	MctsNode[] getChildren() {
+		return children;
+	}
+
+	int getVisitCount() {
+		return visitCount;
+	}
+
+	float getValueSum() {
+		return valueSum;
+	}
+
+	long getPositionKey() {
+		return positionKey;
+	}
+
+	boolean isEvaluating() {
+		return evaluating;
+	}
+
+	void setEvaluating(boolean evaluating) {
+		this.evaluating = evaluating;
+	}
+}
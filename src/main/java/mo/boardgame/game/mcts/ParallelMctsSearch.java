@@ -0,0 +1,265 @@
+package mo.boardgame.game.mcts;
+
+import ai.djl.ndarray.NDManager;
+import mo.boardgame.game.BaseBoardGameEnv;
+import mo.boardgame.game.BoardGameState;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 并行蒙特卡洛树搜索：多个搜索线程各自持有一份环境副本，在虚拟损失下并行选择叶节点并提交估值请求，
+ * 调用线程负责把队列中的请求攒成一批，只做一次前向计算。
+ * 树的选择、扩展和回传都在以根节点为锁的临界区内完成，耗时远小于网络前向计算。
+ * 配置了置换表时，叶节点局面在表中命中则直接使用表中的估值，不再提交给估值线程；网络估值结果也写入表中供所有线程共享。
+ *
+ * @author Caojunqi
+ * @date 2022-01-19 11:00
+ */
+final class ParallelMctsSearch {
+	/**
+	 * 估值线程等待请求的轮询间隔（毫秒）
+	 */
+	private static final long POLL_MILLIS = 1;
+	/**
+	 * 多个线程选中同一个待估值叶节点时的返回值
+	 */
+	private static final LeafRequest COLLISION = new LeafRequest(0, 0);
+
+	private final MctsConfig config;
+	private final PolicyValueEvaluator evaluator;
+	/**
+	 * 各搜索线程共享的置换表，未配置时为null
+	 */
+	private final TranspositionTable table;
+	private final ExecutorService executor;
+	/**
+	 * 各搜索线程专用的环境副本
+	 */
+	private final BaseBoardGameEnv[] workerEnvs;
+	private final BlockingQueue<LeafRequest> requestQueue = new LinkedBlockingQueue<>();
+	/**
+	 * 每个搜索线程一轮最多提交的叶节点数，使所有线程合计能填满一个批量
+	 */
+	private final int leavesPerRound;
+
+	/**
+	 * 本次搜索剩余的模拟次数
+	 */
+	private final AtomicInteger remainingSimulations = new AtomicInteger();
+	/**
+	 * 尚未结束的搜索线程数
+	 */
+	private final AtomicInteger activeWorkers = new AtomicInteger();
+	/**
+	 * 本次搜索的截止时间
+	 */
+	private volatile long deadline;
+	/**
+	 * 本次搜索的提前结束条件
+	 */
+	private volatile BooleanSupplier stopCondition;
+	/**
+	 * 估值失败时中止搜索
+	 */
+	private volatile Throwable failure;
+
+	ParallelMctsSearch(NDManager manager, Random random, BaseBoardGameEnv searchEnv, MctsConfig config, PolicyValueEvaluator evaluator,
+					   TranspositionTable table) {
+		this.config = config;
+		this.evaluator = evaluator;
+		this.table = table;
+		this.workerEnvs = new BaseBoardGameEnv[config.getThreadNum()];
+		for (int i = 0; i < this.workerEnvs.length; i++) {
+			this.workerEnvs[i] = searchEnv.fork(manager.newSubManager(), random);
+		}
+		this.leavesPerRound = Math.max(1, config.getBatchSize() / config.getThreadNum());
+		this.executor = Executors.newFixedThreadPool(config.getThreadNum(), runnable -> {
+			Thread thread = new Thread(runnable, "mcts-search");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * 从给定局面出发并行搜索，直到用完模拟次数或搜索时间，返回时所有搜索线程均已结束
+	 *
+	 * @param root          已扩展的根节点
+	 * @param rootState     根节点局面
+	 * @param simulationNum 模拟次数
+	 * @param deadline      截止时间，{@link System#nanoTime()}
+	 * @param stopCondition 提前结束搜索的条件，后台思考时使用
+	 */
+	void run(MctsNode root, BoardGameState rootState, int simulationNum, long deadline, BooleanSupplier stopCondition) {
+		for (BaseBoardGameEnv env : this.workerEnvs) {
+			env.restore(rootState);
+		}
+		this.remainingSimulations.set(simulationNum);
+		this.activeWorkers.set(this.workerEnvs.length);
+		this.deadline = deadline;
+		this.stopCondition = stopCondition;
+		this.failure = null;
+		List<Future<?>> futures = new ArrayList<>(this.workerEnvs.length);
+		for (BaseBoardGameEnv env : this.workerEnvs) {
+			futures.add(this.executor.submit(() -> runWorker(env, root)));
+		}
+		evaluateRequests();
+		for (Future<?> future : futures) {
+			try {
+				future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("蒙特卡洛树搜索被中断！！", e);
+			} catch (ExecutionException e) {
+				throw new IllegalStateException("蒙特卡洛树搜索线程异常！！", e.getCause());
+			}
+		}
+	}
+
+	void close() {
+		this.executor.shutdownNow();
+	}
+
+	/**
+	 * 估值循环：把队列中已有的请求攒成一批估值，直到所有搜索线程结束
+	 */
+	private void evaluateRequests() {
+		int batchSize = this.config.getBatchSize();
+		List<LeafRequest> batch = new ArrayList<>(batchSize);
+		boolean interrupted = false;
+		while (this.activeWorkers.get() > 0 || !this.requestQueue.isEmpty()) {
+			LeafRequest first;
+			try {
+				first = this.requestQueue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				// 继续循环，使已提交的请求都得到失败信号，搜索线程才能结束
+				this.failure = e;
+				interrupted = true;
+				continue;
+			}
+			if (first == null) {
+				continue;
+			}
+			batch.clear();
+			batch.add(first);
+			this.requestQueue.drainTo(batch, batchSize - 1);
+			if (this.failure != null) {
+				failAll(batch);
+				continue;
+			}
+			try {
+				float[] values = this.evaluator.evaluate(batch);
+				for (int i = 0; i < batch.size(); i++) {
+					LeafRequest request = batch.get(i);
+					request.record(this.table, values[i]);
+					request.complete(values[i]);
+				}
+			} catch (RuntimeException e) {
+				this.failure = e;
+				failAll(batch);
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		if (this.failure != null) {
+			throw new IllegalStateException("叶节点估值失败！！", this.failure);
+		}
+	}
+
+	private void failAll(List<LeafRequest> batch) {
+		for (LeafRequest request : batch) {
+			request.fail(this.failure);
+		}
+	}
+
+	/**
+	 * 搜索线程：每轮在虚拟损失下选出若干叶节点提交估值，等待估值完成后扩展并回传
+	 */
+	private void runWorker(BaseBoardGameEnv env, MctsNode root) {
+		try {
+			List<LeafRequest> pending = new ArrayList<>(this.leavesPerRound);
+			while (this.failure == null && System.nanoTime() < this.deadline && !this.stopCondition.getAsBoolean()) {
+				pending.clear();
+				while (pending.size() < this.leavesPerRound && this.remainingSimulations.getAndDecrement() > 0) {
+					LeafRequest request = selectLeaf(env, root);
+					if (request == COLLISION) {
+						// 退还本次模拟，先等待已提交的叶节点
+						this.remainingSimulations.incrementAndGet();
+						break;
+					}
+					if (request != null) {
+						// 置换表命中时不必等待网络估值
+						if (!request.completeFromTable(this.table)) {
+							this.requestQueue.add(request);
+						}
+						pending.add(request);
+					}
+				}
+				if (pending.isEmpty()) {
+					if (this.remainingSimulations.get() <= 0) {
+						break;
+					}
+					Thread.yield();
+					continue;
+				}
+				for (LeafRequest request : pending) {
+					request.await();
+					MctsNode leaf = request.getLeaf();
+					synchronized (root) {
+						leaf.expand(request.getLegalMoves(), request.getPriors(), request.getPositionKey());
+						leaf.revertVirtualLoss(this.config.getVirtualLoss());
+						leaf.setEvaluating(false);
+						leaf.backup(-request.getValue());
+					}
+				}
+			}
+		} finally {
+			this.activeWorkers.decrementAndGet();
+		}
+	}
+
+	/**
+	 * 沿PUCT选择到叶节点。终局叶节点直接回传；否则在路径上施加虚拟损失，返回估值请求。
+	 *
+	 * @return 估值请求；终局时返回null；叶节点已在等待估值时返回{@link #COLLISION}
+	 */
+	private LeafRequest selectLeaf(BaseBoardGameEnv env, MctsNode root) {
+		MctsNode node = root;
+		int depth = 0;
+		LeafRequest request = null;
+		synchronized (root) {
+			while (node.isExpanded() && !env.isDone()) {
+				node = node.selectChild(this.config.getCPuct());
+				env.play(node.getMove());
+				depth++;
+			}
+			if (env.isDone()) {
+				node.backup(-MctsAgent.terminalValue(env));
+			} else if (node.isEvaluating()) {
+				request = COLLISION;
+			} else {
+				node.setEvaluating(true);
+				node.applyVirtualLoss(this.config.getVirtualLoss());
+				request = new LeafRequest(this.evaluator.getSlotSize(), this.evaluator.getActionNum());
+			}
+		}
+		if (request != null && request != COLLISION) {
+			request.capture(node, env);
+		}
+		for (; depth > 0; depth--) {
+			env.undo();
+		}
+		return request;
+	}
+}
@@ -0,0 +1,118 @@
+package mo.boardgame.game.mcts;
+
+import ai.djl.Model;
+import ai.djl.inference.Predictor;
+import ai.djl.ndarray.types.Shape;
+import ai.djl.translate.TranslateException;
+import mo.boardgame.game.EvaluationCache;
+import mo.boardgame.game.PolicyValueTranslator;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 策略价值网络估值器：把一批叶节点的环境状态拼成一个[批量, 通道, 行, 列]输入，只做一次前向计算。
+ * 配置了估值缓存时，命中缓存的叶节点不参与前向计算，未命中的估值结果写入缓存。
+ *
+ * @author Caojunqi
+ * @date 2022-01-19 10:30
+ */
+final class PolicyValueEvaluator {
+	private final Predictor<FloatBuffer, PolicyValueTranslator.Output> predictor;
+	/**
+	 * 估值缓存，未配置时为null
+	 */
+	private final EvaluationCache.View cache;
+	private final int slotSize;
+	private final int actionNum;
+	/**
+	 * 预分配的网络输入缓冲区，容量为最大批量
+	 */
+	private final FloatBuffer inputBuffer;
+
+	PolicyValueEvaluator(Model model, EvaluationCache.View cache, Shape slotShape, int actionNum, int maxBatchSize) {
+		this.predictor = model.newPredictor(new PolicyValueTranslator(slotShape));
+		this.cache = cache;
+		this.slotSize = (int) slotShape.size();
+		this.actionNum = actionNum;
+		this.inputBuffer = ByteBuffer.allocateDirect(this.slotSize * maxBatchSize * Float.BYTES)
+				.order(ByteOrder.nativeOrder())
+				.asFloatBuffer();
+	}
+
+	/**
+	 * 批量估值，结果写回各请求，但不发出完成信号
+	 *
+	 * @param batch 待估值的叶节点，数量不超过最大批量
+	 * @return 各请求的价值
+	 */
+	float[] evaluate(List<LeafRequest> batch) {
+		float[] values = new float[batch.size()];
+		List<LeafRequest> misses = batch;
+		int[] missIndices = null;
+		if (this.cache != null) {
+			misses = new ArrayList<>(batch.size());
+			missIndices = new int[batch.size()];
+			for (int i = 0; i < batch.size(); i++) {
+				LeafRequest request = batch.get(i);
+				EvaluationCache.Evaluation evaluation = this.cache.get(request.getEvaluationKey());
+				if (evaluation == null) {
+					missIndices[misses.size()] = i;
+					misses.add(request);
+					continue;
+				}
+				fillPriors(request.getPriors(), evaluation.getLogPolicy(), 0);
+				values[i] = evaluation.getValue();
+			}
+			if (misses.isEmpty()) {
+				return values;
+			}
+		}
+		int batchSize = misses.size();
+		FloatBuffer buffer = this.inputBuffer;
+		buffer.clear();
+		for (LeafRequest request : misses) {
+			buffer.put(request.getObservation());
+		}
+		buffer.flip();
+		PolicyValueTranslator.Output output;
+		try {
+			output = this.predictor.predict(buffer);
+		} catch (TranslateException e) {
+			throw new IllegalStateException("叶节点估值失败！！", e);
+		}
+		float[] missValues = output.getValues();
+		float[] logPolicy = output.getLogPolicy();
+		for (int i = 0; i < batchSize; i++) {
+			LeafRequest request = misses.get(i);
+			int offset = i * this.actionNum;
+			fillPriors(request.getPriors(), logPolicy, offset);
+			values[missIndices == null ? i : missIndices[i]] = missValues[i];
+			if (this.cache != null) {
+				this.cache.put(request.getEvaluationKey(), logPolicy, offset, this.actionNum, missValues[i]);
+			}
+		}
+		return values;
+	}
+
+	private void fillPriors(float[] priors, float[] logPolicy, int offset) {
+		for (int j = 0; j < this.actionNum; j++) {
+			priors[j] = (float) Math.exp(logPolicy[offset + j]);
+		}
+	}
+
+	void close() {
+		this.predictor.close();
+	}
+
+	int getSlotSize() {
+		return slotSize;
+	}
+
+	int getActionNum() {
+		return actionNum;
+	}
+}
@@ -0,0 +1,286 @@
+package mo.boardgame.game.mcts;
+
+import org.apache.commons.lang3.Validate;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * 无锁置换表：以64位局面哈希为键，记录局面的访问次数、价值总和以及各落子的先验概率，
+ * 使不同落子顺序到达的相同局面、以及并行搜索的不同线程之间可以共享估值与统计，而不必重复扩展。
+ * <p>
+ * 表的内存为固定大小的堆外直接内存，不受GC影响。每个条目由若干long组成：
+ * 第0个long为校验字 = 键 ^ 其余所有long，其余依次为[访问次数|价值总和]、[深度|世代]、按16位定点数打包的先验概率。
+ * 读写均不加锁，多线程同时写同一条目造成的撕裂会因校验字不匹配而被视为未命中（lockless hashing）。
+ * <p>
+ * 每个哈希桶有{@link #BUCKET_SIZE}个条目，替换时优先替换同键条目、空条目，其次是旧世代的条目，
+ * 同世代时替换深度最小的条目。
+ *
+ * @author Caojunqi
+ * @date 2022-01-20 10:15
+ */
+public final class TranspositionTable {
+	/**
+	 * 每个哈希桶的条目数
+	 */
+	private static final int BUCKET_SIZE = 4;
+	/**
+	 * 条目头部的long数：校验字、统计、深度与世代
+	 */
+	private static final int HEADER_WORDS = 3;
+	/**
+	 * 每个long可打包的先验概率数
+	 */
+	private static final int PRIORS_PER_WORD = 4;
+	/**
+	 * 先验概率定点数的放大倍数
+	 */
+	private static final float PRIOR_SCALE = 0xFFFF;
+
+	private final ByteBuffer table;
+	private final int actionNum;
+	/**
+	 * 每个条目的long数
+	 */
+	private final int entryWords;
+	/**
+	 * 哈希桶数减一，桶数为2的幂
+	 */
+	private final long bucketMask;
+	/**
+	 * 当前世代，每次新的搜索开始时加一
+	 */
+	private volatile int age;
+
+	/**
+	 * @param bucketBits 哈希桶数的对数，总条目数为 {@link #BUCKET_SIZE} * 2^bucketBits
+	 * @param actionNum  行为空间大小
+	 */
+	public TranspositionTable(int bucketBits, int actionNum) {
+		Validate.isTrue(bucketBits > 0 && bucketBits < 28, "哈希桶数的对数超出范围！！bucketBits:%d", bucketBits);
+		this.actionNum = actionNum;
+		this.entryWords = HEADER_WORDS + (actionNum + PRIORS_PER_WORD - 1) / PRIORS_PER_WORD;
+		this.bucketMask = (1L << bucketBits) - 1;
+		long bytes = (1L << bucketBits) * BUCKET_SIZE * this.entryWords * Long.BYTES;
+		Validate.isTrue(bytes <= Integer.MAX_VALUE, "置换表过大！！bytes:%d", bytes);
+		this.table = ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * 开始新一轮搜索，此后写入的条目属于新世代，旧世代的条目优先被替换
+	 */
+	public void newSearch() {
+		this.age++;
+	}
+
+	/**
+	 * 清空所有条目
+	 */
+	public void clear() {
+		for (int i = 0; i < this.table.capacity(); i += Long.BYTES) {
+			this.table.putLong(i, 0L);
+		}
+	}
+
+	/**
+	 * 查找局面
+	 *
+	 * @param key   局面哈希，不能为0
+	 * @param entry 命中时写入结果
+	 * @return 是否命中
+	 */
+	public boolean probe(long key, Entry entry) {
+		if (key == 0) {
+			return false;
+		}
+		int bucketOffset = bucketOffset(key);
+		for (int i = 0; i < BUCKET_SIZE; i++) {
+			int offset = bucketOffset + i * this.entryWords * Long.BYTES;
+			if (readEntry(offset, key, entry)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * 写入局面，已有同键条目时覆盖
+	 *
+	 * @param key        局面哈希，为0时忽略
+	 * @param depth      搜索深度或搜索量，越大越不容易被替换；蒙特卡洛树搜索中使用访问次数
+	 * @param visitCount 访问次数
+	 * @param valueSum   站在该局面行动玩家视角的价值总和
+	 * @param priors     各落子的先验概率，长度为行为空间大小
+	 */
+	public void store(long key, int depth, int visitCount, float valueSum, float[] priors) {
+		if (key == 0) {
+			return;
+		}
+		int offset = selectVictim(key);
+		int currentAge = this.age;
+		long stats = ((long) visitCount << 32) | (Float.floatToRawIntBits(valueSum) & 0xFFFFFFFFL);
+		long meta = ((long) depth << 32) | (currentAge & 0xFFFFFFFFL);
+		long check = key ^ stats ^ meta;
+		for (int w = HEADER_WORDS; w < this.entryWords; w++) {
+			long packed = packPriors(priors, (w - HEADER_WORDS) * PRIORS_PER_WORD);
+			this.table.putLong(offset + w * Long.BYTES, packed);
+			check ^= packed;
+		}
+		this.table.putLong(offset + Long.BYTES, stats);
+		this.table.putLong(offset + 2 * Long.BYTES, meta);
+		this.table.putLong(offset, check);
+	}
+
+	/**
+	 * 更新已有条目的统计数据，保留其先验概率；条目不存在时不做任何事
+	 *
+	 * @param entry 复用的临时条目
+	 * @return 是否更新
+	 */
+	public boolean update(long key, int depth, int visitCount, float valueSum, Entry entry) {
+		if (!probe(key, entry)) {
+			return false;
+		}
+		store(key, depth, visitCount, valueSum, entry.priors);
+		return true;
+	}
+
+	public int getActionNum() {
+		return actionNum;
+	}
+
+	/**
+	 * @return 总条目数
+	 */
+	public long getCapacity() {
+		return (this.bucketMask + 1) * BUCKET_SIZE;
+	}
+
+	private int bucketOffset(long key) {
+		long bucket = (key >>> 32 ^ key) & this.bucketMask;
+		return (int) (bucket * BUCKET_SIZE * this.entryWords * Long.BYTES);
+	}
+
+	/**
+	 * 读取并校验条目
+	 */
+	private boolean readEntry(int offset, long key, Entry entry) {
+		long check = this.table.getLong(offset);
+		long stats = this.table.getLong(offset + Long.BYTES);
+		long meta = this.table.getLong(offset + 2 * Long.BYTES);
+		long xor = stats ^ meta;
+		for (int w = HEADER_WORDS; w < this.entryWords; w++) {
+			long packed = this.table.getLong(offset + w * Long.BYTES);
+			xor ^= packed;
+			unpackPriors(packed, (w - HEADER_WORDS) * PRIORS_PER_WORD, entry.priors);
+		}
+		if ((check ^ xor) != key) {
+			return false;
+		}
+		entry.visitCount = (int) (stats >>> 32);
+		entry.valueSum = Float.intBitsToFloat((int) stats);
+		entry.depth = (int) (meta >>> 32);
+		return true;
+	}
+
+	/**
+	 * 在哈希桶中选择要写入的条目位置
+	 */
+	private int selectVictim(long key) {
+		int bucketOffset = bucketOffset(key);
+		int currentAge = this.age;
+		int victim = bucketOffset;
+		long victimScore = Long.MAX_VALUE;
+		for (int i = 0; i < BUCKET_SIZE; i++) {
+			int offset = bucketOffset + i * this.entryWords * Long.BYTES;
+			long check = this.table.getLong(offset);
+			long stats = this.table.getLong(offset + Long.BYTES);
+			long meta = this.table.getLong(offset + 2 * Long.BYTES);
+			if (check == 0 && stats == 0 && meta == 0) {
+				// 空条目
+				return offset;
+			}
+			if (isSameKey(offset, check, stats ^ meta, key)) {
+				return offset;
+			}
+			int entryAge = (int) meta;
+			int entryDepth = (int) (meta >>> 32);
+			// 旧世代的条目优先替换，同世代时替换深度最小的
+			long score = (entryAge == currentAge ? 1L << 32 : 0) + (entryDepth & 0xFFFFFFFFL);
+			if (score < victimScore) {
+				victimScore = score;
+				victim = offset;
+			}
+		}
+		return victim;
+	}
+
+	private boolean isSameKey(int offset, long check, long headerXor, long key) {
+		long xor = headerXor;
+		for (int w = HEADER_WORDS; w < this.entryWords; w++) {
+			xor ^= this.table.getLong(offset + w * Long.BYTES);
+		}
+		return (check ^ xor) == key;
+	}
+
+	private long packPriors(float[] priors, int start) {
+		long packed = 0;
+		for (int i = 0; i < PRIORS_PER_WORD && start + i < this.actionNum; i++) {
+			float prior = Math.max(0, Math.min(1, priors[start + i]));
+			long fixed = Math.round(prior * PRIOR_SCALE);
+			packed |= fixed << (i * Short.SIZE);
+		}
+		return packed;
+	}
+
+	private void unpackPriors(long packed, int start, float[] priors) {
+		for (int i = 0; i < PRIORS_PER_WORD && start + i < this.actionNum; i++) {
+			long fixed = (packed >>> (i * Short.SIZE)) & 0xFFFF;
+			priors[start + i] = fixed / PRIOR_SCALE;
+		}
+	}
+
+	/**
+	 * 查找结果，可复用以避免分配
+	 */
+	public static final class Entry {
+		private final float[] priors;
+		private int visitCount;
+		private float valueSum;
+		private int depth;
+
+		public Entry(int actionNum) {
+			this(new float[actionNum]);
+		}
+
+		/**
+		 * @param priors 命中时写入先验概率的数组；未命中时其内容可能已被改写
+		 */
+		Entry(float[] priors) {
+			this.priors = priors;
+		}
+
+		public float[] getPriors() {
+			return priors;
+		}
+
+		public int getVisitCount() {
+			return visitCount;
+		}
+
+		public float getValueSum() {
+			return valueSum;
+		}
+
+		/**
+		 * @return 站在该局面行动玩家视角的平均价值
+		 */
+		public float getMeanValue() {
+			return this.visitCount == 0 ? 0 : this.valueSum / this.visitCount;
+		}
+
+		public int getDepth() {
+			return depth;
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package mo.boardgame.game;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * 位棋盘胜负检测测试：增量检测结果需与逐子全盘扫描一致
+ *
+ * @author Caojunqi
+ * @date 2022-01-10 16:40
+ */
+public class BitBoardTest {
+
+	private static final int N_IN_ROW = 5;
+	private static final int N_PLAYERS = 2;
+	private static final int GAMES_PER_SIZE = 500;
+
+	@Test
+	public void incrementalWinCheckMatchesFullScan() {
+		Random random = new Random(0);
+		for (int gridLength : new int[]{10, 15, 19}) {
+			for (int game = 0; game < GAMES_PER_SIZE; game++) {
+				playRandomGame(random, gridLength);
+			}
+		}
+	}
+
+	private void playRandomGame(Random random, int gridLength) {
+		int numSquares = gridLength * gridLength;
+		BitBoard board = new BitBoard(gridLength, N_PLAYERS);
+		int[] squares = new int[numSquares];
+		for (int i = 0; i < numSquares; i++) {
+			squares[i] = i;
+		}
+		// 随机打乱落子顺序
+		for (int i = numSquares - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int tmp = squares[i];
+			squares[i] = squares[j];
+			squares[j] = tmp;
+		}
+		for (int turn = 0; turn < numSquares; turn++) {
+			int playerId = turn % N_PLAYERS;
+			int square = squares[turn];
+			board.place(square, playerId);
+			boolean expected = fullScan(board, playerId);
+			boolean actual = board.isWinningMove(square, playerId, N_IN_ROW);
+			Assert.assertEquals("gridLength:" + gridLength + ", turn:" + turn + ", square:" + square, expected, actual);
+			if (actual) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * 原有的胜负检测方式：从该玩家的每一枚棋子出发，检测四个方向
+	 */
+	private boolean fullScan(BitBoard board, int playerId) {
+		int gridLength = board.getGridLength();
+		for (int i = 0; i < board.getNumSquares(); i++) {
+			if (!board.isPlayer(i, playerId)) {
+				continue;
+			}
+			int h = i / gridLength;
+			int w = i % gridLength;
+			if (w < gridLength - N_IN_ROW + 1 && allPlayer(board, playerId, i, 1)) {
+				return true;
+			}
+			if (h < gridLength - N_IN_ROW + 1 && allPlayer(board, playerId, i, gridLength)) {
+				return true;
+			}
+			if (w < gridLength - N_IN_ROW + 1 && h < gridLength - N_IN_ROW + 1 && allPlayer(board, playerId, i, gridLength + 1)) {
+				return true;
+			}
+			if (w >= N_IN_ROW - 1 && h < gridLength - N_IN_ROW + 1 && allPlayer(board, playerId, i, gridLength - 1)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean allPlayer(BitBoard board, int playerId, int start, int stride) {
+		for (int k = 0; k < N_IN_ROW; k++) {
+			if (!board.isPlayer(start + k * stride, playerId)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
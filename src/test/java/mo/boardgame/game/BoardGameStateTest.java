@@ -0,0 +1,76 @@
+package mo.boardgame.game;
+
+import ai.djl.ndarray.NDManager;
+import mo.boardgame.BoardGameType;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+/**
+ * 棋局快照往返测试：恢复后的棋局状态及环境状态需与捕获快照的环境一致，包括非法落子判负的终局
+ *
+ * @author Caojunqi
+ * @date 2022-01-26 10:30
+ */
+public class BoardGameStateTest {
+
+	private static final int GAMES_PER_TYPE = 50;
+
+	@Test
+	public void restoredStateMatchesSnapshotSource() {
+		Random random = new Random(0);
+		try (NDManager manager = NDManager.newBaseManager()) {
+			for (BoardGameType gameType : BoardGameType.values()) {
+				BaseBoardGameEnv liveEnv = gameType.buildBoardGameEnv(manager.newSubManager(), random, false);
+				BaseBoardGameEnv restoredEnv = gameType.buildBoardGameEnv(manager.newSubManager(), random, false);
+				for (int game = 0; game < GAMES_PER_TYPE; game++) {
+					// 一半的对局以非法落子判负结束
+					checkGame(random, liveEnv, restoredEnv, game % 2 == 1);
+				}
+				liveEnv.close();
+				restoredEnv.close();
+			}
+		}
+	}
+
+	private void checkGame(Random random, BaseBoardGameEnv liveEnv, BaseBoardGameEnv restoredEnv, boolean forfeit) {
+		liveEnv.reset();
+		checkRoundTrip(liveEnv, restoredEnv);
+		while (!liveEnv.isDone()) {
+			if (forfeit && liveEnv.getMoveCount() > 0 && random.nextInt(4) == 0) {
+				liveEnv.forfeit(liveEnv.getMove(random.nextInt(liveEnv.getMoveCount())));
+			} else {
+				liveEnv.play(randomLegalMove(random, liveEnv));
+			}
+			checkRoundTrip(liveEnv, restoredEnv);
+		}
+	}
+
+	private void checkRoundTrip(BaseBoardGameEnv liveEnv, BaseBoardGameEnv restoredEnv) {
+		BoardGameState state = liveEnv.snapshot();
+		restoredEnv.restore(state);
+		String message = liveEnv.getName() + " ply:" + liveEnv.getMoveCount();
+		Assert.assertEquals(message, state, restoredEnv.snapshot());
+		Assert.assertEquals(message, liveEnv.isForfeited(), restoredEnv.isForfeited());
+		if (liveEnv.isForfeited()) {
+			Assert.assertEquals(message, liveEnv.getForfeitMove(), restoredEnv.getForfeitMove());
+		}
+		Assert.assertArrayEquals(message, observe(liveEnv), observe(restoredEnv), 0);
+	}
+
+	private int randomLegalMove(Random random, BaseBoardGameEnv env) {
+		int move;
+		do {
+			move = random.nextInt(env.getActionNum());
+		} while (!env.isLegal(move));
+		return move;
+	}
+
+	private float[] observe(BaseBoardGameEnv env) {
+		float[] observation = new float[(int) env.getObservationSlotShape().size()];
+		env.writeObservation(FloatBuffer.wrap(observation));
+		return observation;
+	}
+}
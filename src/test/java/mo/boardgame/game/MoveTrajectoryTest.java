@@ -0,0 +1,83 @@
+package mo.boardgame.game;
+
+import ai.djl.ndarray.NDManager;
+import mo.boardgame.BoardGameType;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 落子序列重放测试：每一步重放得到的环境状态需与实际对局中的环境状态一致，包括非法落子判负的一步
+ *
+ * @author Caojunqi
+ * @date 2022-01-25 16:30
+ */
+public class MoveTrajectoryTest {
+
+	private static final int GAMES_PER_TYPE = 50;
+
+	@Test
+	public void replayedObservationsMatchLivePlay() {
+		Random random = new Random(0);
+		try (NDManager manager = NDManager.newBaseManager()) {
+			for (BoardGameType gameType : BoardGameType.values()) {
+				BaseBoardGameEnv liveEnv = gameType.buildBoardGameEnv(manager.newSubManager(), random, false);
+				BaseBoardGameEnv replayEnv = gameType.buildBoardGameEnv(manager.newSubManager(), random, false);
+				for (int game = 0; game < GAMES_PER_TYPE; game++) {
+					// 一半的对局以非法落子判负结束
+					checkGame(random, liveEnv, replayEnv, game % 2 == 1);
+				}
+				liveEnv.close();
+				replayEnv.close();
+			}
+		}
+	}
+
+	private void checkGame(Random random, BaseBoardGameEnv liveEnv, BaseBoardGameEnv replayEnv, boolean forfeit) {
+		liveEnv.reset();
+		MoveTrajectory trajectory = new MoveTrajectory();
+		List<float[]> observations = new ArrayList<>();
+		observations.add(observe(liveEnv));
+		while (!liveEnv.isDone()) {
+			if (forfeit && liveEnv.getMoveCount() > 0 && random.nextInt(4) == 0) {
+				liveEnv.forfeit(liveEnv.getMove(random.nextInt(liveEnv.getMoveCount())));
+			} else {
+				liveEnv.play(randomLegalMove(random, liveEnv));
+			}
+			observations.add(observe(liveEnv));
+			// 与自我对弈一样在对局中途多次同步
+			if (random.nextBoolean() || liveEnv.isDone()) {
+				trajectory.sync(liveEnv);
+			}
+		}
+		Assert.assertEquals(observations.size() - 1, trajectory.getPly());
+
+		replayEnv.reset();
+		for (int ply = 0; ply < observations.size(); ply++) {
+			if (ply > 0) {
+				trajectory.replay(replayEnv, ply - 1, ply);
+			}
+			Assert.assertArrayEquals(replayEnv.getName() + " ply:" + ply, observations.get(ply), observe(replayEnv), 0);
+		}
+		Assert.assertEquals(liveEnv.isForfeited(), replayEnv.isForfeited());
+		Assert.assertEquals(liveEnv.getWinner(), replayEnv.getWinner());
+	}
+
+	private int randomLegalMove(Random random, BaseBoardGameEnv env) {
+		int move;
+		do {
+			move = random.nextInt(env.getActionNum());
+		} while (!env.isLegal(move));
+		return move;
+	}
+
+	private float[] observe(BaseBoardGameEnv env) {
+		float[] observation = new float[(int) env.getObservationSlotShape().size()];
+		env.writeObservation(FloatBuffer.wrap(observation));
+		return observation;
+	}
+}